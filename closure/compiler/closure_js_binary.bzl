@@ -24,6 +24,7 @@ load(
     "collect_runfiles",
     "difference",
     "find_js_module_roots",
+    "get_errors_format",
     "get_jsfile_path",
     "sort_roots",
     "unfurl",
@@ -90,6 +91,21 @@ def _impl(ctx):
     if not ctx.attr.debug:
         args.append("--define=goog.DEBUG=false")
 
+    # Builds that never look beyond the source being transformed, i.e.
+    # WHITESPACE_ONLY with dependency_mode NONE that doesn't transpile (language
+    # set to JS_LANGUAGE_IN), can be split into independent compilations that
+    # run concurrently, with --define=closure_compiler_shards=N. JsCompiler
+    # ignores this flag for other builds.
+    shards = min(int(ctx.var.get("closure_compiler_shards", "1")), len(js.srcs.to_list()))
+    if shards > 1:
+        args.append("--shards")
+        args.append(str(shards))
+
+    errors_format = get_errors_format(ctx)
+    if errors_format != "text":
+        args.append("--output_errors_format")
+        args.append(errors_format)
+
     # These ClosureJsLibrary protocol buffers contain information about which
     # errors should be suppressed in which files.
     for info in js.infos.to_list():
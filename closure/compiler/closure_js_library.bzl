@@ -24,6 +24,7 @@ load(
     "convert_path_to_es6_module_name",
     "create_argfile",
     "find_js_module_roots",
+    "get_errors_format",
     "library_level_checks",
     "make_jschecker_progress_message",
     "sort_roots",
@@ -91,8 +92,17 @@ def create_closure_js_library(
         testonly = testonly,
         closure_library_base = ctx.files._closure_library_base,
         closure_worker = ctx.executable._ClosureWorker,
+        incremental = _incremental_checks_enabled(ctx),
+        errors_format = get_errors_format(ctx),
+        binary_info = _binary_info_enabled(ctx),
     )
 
+def _incremental_checks_enabled(ctx):
+    return ctx.var.get("closure_incremental_checks") == "1"
+
+def _binary_info_enabled(ctx):
+    return ctx.var.get("closure_binary_info") == "1"
+
 def _closure_js_library_impl(
         actions,
         label,
@@ -116,7 +126,10 @@ def _closure_js_library_impl(
         deprecated_info_file = None,
         deprecated_stderr_file = None,
         deprecated_ijs_file = None,
-        deprecated_typecheck_file = None):
+        deprecated_typecheck_file = None,
+        incremental = False,
+        errors_format = "text",
+        binary_info = False):
     # TODO(yannic): Figure out how to modify |find_js_module_roots|
     # so that we won't need |workspace_name| anymore.
 
@@ -142,6 +155,15 @@ def _closure_js_library_impl(
         deprecated_info_file,
         "%s.pbtxt" % label.name,
     )
+
+    # With --define=closure_binary_info=1, JsChecker also writes the info as a
+    # length-delimited binary proto, which is smaller and faster to write and
+    # read than text. That copy is what gets propagated to parent rules, while
+    # the .pbtxt stays the same for anything that reads it directly.
+    if binary_info:
+        provided_info_file = actions.declare_file("%s.pb" % label.name)
+    else:
+        provided_info_file = info_file
     stderr_file = _maybe_declare_file(
         actions,
         deprecated_stderr_file,
@@ -209,6 +231,18 @@ def _closure_js_library_impl(
     if testonly:
         args.append("--testonly")
 
+    # A persistent worker can remember what JsChecker found in each source, so
+    # that editing one src of a large library only checks that src again. This
+    # is opt-in with --define=closure_incremental_checks=1.
+    if incremental:
+        args.append("--incremental")
+    if errors_format != "text":
+        args.append("--output_errors_format")
+        args.append(errors_format)
+    if binary_info:
+        args.append("--output_binary")
+        args.append(provided_info_file.path)
+
     # The suppress attribute is a Closure Rules feature that makes warnings and
     # errors go away. It's a list of strings containing DiagnosticGroup (coarse
     # grained) or DiagnosticType (fine grained) codes. These apply not only to
@@ -279,15 +313,22 @@ def _closure_js_library_impl(
     argfile = create_argfile(actions, label.name, args)
     inputs.append(argfile)
 
+    outputs = [info_file, stderr_file, ijs_file]
+    if binary_info:
+        outputs.append(provided_info_file)
+
     # Add a JsChecker edge to the build graph. The command itself will only be
     # executed if something that requires its output is executed.
     actions.run(
         inputs = inputs,
-        outputs = [info_file, stderr_file, ijs_file],
+        outputs = outputs,
         executable = closure_worker,
         arguments = ["@@" + argfile.path],
         mnemonic = "Closure",
-        execution_requirements = {"supports-workers": "1"},
+        execution_requirements = {
+            "supports-multiplex-workers": "1",
+            "supports-workers": "1",
+        },
         progress_message = make_jschecker_progress_message(srcs, label),
     )
 
@@ -335,15 +376,16 @@ def _closure_js_library_impl(
         # accessed using getattr(x, y, default). See collect_js() in defs.bzl.
         closure_js_library = struct(
             # File pointing to a ClosureJsLibrary protobuf file in pbtxt format
+            # (or binary, with --define=closure_binary_info=1)
             # that's generated by this specific Target. It contains some metadata
             # as well as information extracted from inside the srcs files, e.g.
             # goog.provide'd namespaces. It is used for strict dependency
             # checking, a.k.a. layering checks.
-            info = info_file,
+            info = provided_info_file,
             # NestedSet<File> of all info files in the transitive closure. This
             # is used by JsCompiler to apply error suppression on a file-by-file
             # basis.
-            infos = depset([info_file], transitive = [js.infos]),
+            infos = depset([provided_info_file], transitive = [js.infos]),
             ijs = ijs_file,
             ijs_files = depset([ijs_file], transitive = [js.ijs_files]),
             # NestedSet<File> of all JavaScript source File artifacts in the
@@ -418,6 +460,9 @@ def _closure_js_library(ctx):
         ctx.outputs.stderr,
         ctx.outputs.ijs,
         ctx.outputs.typecheck,
+        incremental = _incremental_checks_enabled(ctx),
+        errors_format = get_errors_format(ctx),
+        binary_info = _binary_info_enabled(ctx),
     )
 
     return struct(
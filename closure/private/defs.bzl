@@ -212,7 +212,7 @@ def sort_roots(roots):
     return [r for _, r in sorted([(-len(r.split("/")), r) for r in roots.to_list()])]
 
 def convert_path_to_es6_module_name(path, roots):
-    """Equivalent to JsCheckerHelper#convertPathToModuleName."""
+    """Equivalent to ModuleRoots#toModuleName."""
     if not path.endswith(".js") and not path.endswith(".zip"):
         fail("Path didn't end with .js or .zip: %s" % path)
     module = path[:-3]
@@ -234,6 +234,15 @@ def make_jschecker_progress_message(srcs, label):
 def difference(a, b):
     return [i for i in a.to_list() if i not in b.to_list()]
 
+def get_errors_format(ctx):
+    """Returns format of the errors files written by JsChecker and JsCompiler.
+
+    This is "text" unless tools that aggregate diagnostics pass
+    --define=closure_errors_format=proto to get length-delimited Diagnostic
+    protos instead.
+    """
+    return ctx.var.get("closure_errors_format", "text")
+
 def long_path(ctx, file_):
     """Returns short_path relative to parent directory."""
     if file_.short_path.startswith("../"):
@@ -121,7 +121,10 @@ def _web_library(ctx):
         executable = ctx.executable._ClosureWorker,
         arguments = ["@@" + argfile.path],
         mnemonic = "Closure",
-        execution_requirements = {"supports-workers": "1"},
+        execution_requirements = {
+            "supports-multiplex-workers": "1",
+            "supports-workers": "1",
+        },
         progress_message = "Checking webfiles in %s" % ctx.label,
     )
 
@@ -16,8 +16,6 @@
 
 package com.google.javascript.jscomp;
 
-import static com.google.javascript.jscomp.JsCheckerHelper.convertPathToModuleName;
-
 import com.google.javascript.jscomp.NodeTraversal.AbstractShallowCallback;
 import com.google.javascript.rhino.Node;
 import io.bazel.rules.closure.Webpath;
@@ -52,6 +50,20 @@ abstract class CheckStrictDeps
     NodeTraversal.traverse(compiler, scriptRoot, this);
   }
 
+  /**
+   * Returns {@code true} if {@code n} is a {@code goog.provide}, {@code goog.module} or {@code
+   * goog.declareModuleId} call with a string literal.
+   */
+  static boolean isNamespaceDeclaration(Node n) {
+    if (!n.isCall() || !n.getLastChild().isString()) {
+      return false;
+    }
+    Node callee = n.getFirstChild();
+    return callee.matchesQualifiedName("goog.provide")
+        || callee.matchesQualifiedName("goog.module")
+        || callee.matchesQualifiedName("goog.declareModuleId");
+  }
+
   static final class FirstPass extends CheckStrictDeps {
 
     private final JsCheckerState state;
@@ -63,36 +75,40 @@ abstract class CheckStrictDeps
 
     @Override
     public final void visit(NodeTraversal t, Node n, Node parent) {
-      if (!n.isCall()) {
+      if (!isNamespaceDeclaration(n)) {
         return;
       }
       Node callee = n.getFirstChild();
       Node parameter = n.getLastChild();
-      if (parameter.isString()
-          && (callee.matchesQualifiedName("goog.provide")
-              || callee.matchesQualifiedName("goog.module")
-              || callee.matchesQualifiedName("goog.declareModuleId"))) {
-        String namespace = JsCheckerHelper.normalizeClosureNamespace(parameter.getString());
-        if (!state.mysterySources.contains(t.getSourceName())) {
-          if (!state.provides.add(namespace)) {
-            t.report(parameter, DUPLICATE_PROVIDES, state.label);
-          }
-          if (state.provided.contains(namespace)
-              && state.redeclaredProvides.add(namespace)) {
-            t.report(parameter, REDECLARED_PROVIDES, state.label);
-          }
-          if (!callee.matchesQualifiedName("goog.declareModuleId")) {
-            // This file uses `goog.{provide,module}`, so it can no longer be an ES6 module.
-            // For migration, ES6 modules can call `goog.declareModuleId` to allow them to be
-            // imported by `goog.require` (if they are `goog.module`s).
-            // https://github.com/google/closure-compiler/wiki/Migrating-from-goog.modules-to-ES6-modules
-            state.provides.removeAll(
-                convertPathToModuleName(t.getSourceName(), state.roots).asSet());
-          }
-        } else {
-          state.provided.add(namespace);
-          state.provided.removeAll(convertPathToModuleName(t.getSourceName(), state.roots).asSet());
-        }
+      String namespace = JsCheckerHelper.normalizeClosureNamespace(parameter.getString());
+      if (!state.provides.add(namespace)) {
+        t.report(parameter, DUPLICATE_PROVIDES, state.label);
+      }
+      if (state.isProvided(namespace)
+          && state.redeclaredProvides.add(namespace)) {
+        t.report(parameter, REDECLARED_PROVIDES, state.label);
+      }
+      if (!callee.matchesQualifiedName("goog.declareModuleId")) {
+        // This file uses `goog.{provide,module}`, so it can no longer be an ES6 module.
+        // For migration, ES6 modules can call `goog.declareModuleId` to allow them to be
+        // imported by `goog.require` (if they are `goog.module`s).
+        // https://github.com/google/closure-compiler/wiki/Migrating-from-goog.modules-to-ES6-modules
+        state.provides.removeAll(state.roots.toModuleName(t.getSourceName()).asSet());
+      }
+    }
+
+    /**
+     * Adds what a {@code --mystery_src} provides to the namespaces provided by deps.
+     *
+     * <p>Mystery sources aren't compiled, since this is all that's needed from them. If the file
+     * declares Closure namespaces, those are provided instead of its ES6 module name.
+     */
+    static void provideMysterySource(
+        JsCheckerState state, String sourceName, SourceProvides provides) {
+      if (provides.namespaces.isEmpty()) {
+        state.provided.addAll(state.roots.toModuleName(sourceName).asSet());
+      } else {
+        state.provided.addAll(provides.namespaces);
       }
     }
   }
@@ -155,7 +171,7 @@ abstract class CheckStrictDeps
         }
         namespace = me.lookup(Webpath.get(namespace)).toString();
       }
-      if (!state.provided.contains(namespace)
+      if (!state.isProvided(namespace)
           && !state.provides.contains(namespace)
           && state.notProvidedNamespaces.add(namespace)) {
         t.report(n, NOT_PROVIDED, state.label);
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import dagger.Module;
+import dagger.Provides;
+import io.bazel.rules.closure.BuildInfo.ClosureJsLibrary;
+import io.bazel.rules.closure.worker.InputCache;
+import io.bazel.rules.closure.worker.MemoryGovernor;
+import java.io.IOException;
+import javax.inject.Singleton;
+
+/**
+ * Dagger module for caching {@link ClosureJsLibrary} protos between worker actions.
+ *
+ * <p>Every {@link JsChecker} and {@link JsCompiler} action loads the info files of its deps. Parent
+ * rules load the same files over and over again, so a persistent worker keeps the parsed protos
+ * around, keyed by the digest Bazel gives us for each input. {@link JsChecker} only needs the
+ * namespaces of its deps, so those are also kept as a {@link NamespaceSet}.
+ */
+@Module
+public abstract class ClosureJsLibraryModule {
+
+  // Upper bound on the total serialized size of cached protos. Their footprint on the heap is a
+  // small multiple of this, since strings are stored as UTF-16 and each has an object header.
+  private static final long MAX_CACHE_WEIGHT = 64L * 1024 * 1024;
+
+  // Upper bound on the total size of the namespace sets JsChecker looks up requires in.
+  private static final long MAX_NAMESPACE_SET_WEIGHT = 32L * 1024 * 1024;
+
+  @Provides
+  @Singleton
+  static LoadingCache<InputCache.Key, ClosureJsLibrary> provideClosureJsLibraryCache(
+      MemoryGovernor governor) {
+    return governor.newCache(
+        "ClosureJsLibrary",
+        MAX_CACHE_WEIGHT,
+        (InputCache.Key key, ClosureJsLibrary info) -> info.getSerializedSize(),
+        new CacheLoader<InputCache.Key, ClosureJsLibrary>() {
+          @Override
+          public ClosureJsLibrary load(InputCache.Key key) throws IOException {
+            return JsCheckerHelper.loadClosureJsLibraryInfo(key.path());
+          }
+        });
+  }
+
+  @Provides
+  @Singleton
+  static LoadingCache<InputCache.Key, NamespaceSet> provideNamespaceSetCache(
+      MemoryGovernor governor) {
+    return governor.newCache(
+        "NamespaceSet",
+        MAX_NAMESPACE_SET_WEIGHT,
+        (InputCache.Key key, NamespaceSet namespaces) -> namespaces.weigh(),
+        new CacheLoader<InputCache.Key, NamespaceSet>() {
+          @Override
+          public NamespaceSet load(InputCache.Key key) throws IOException {
+            return NamespaceSet.copyOf(
+                JsCheckerHelper.loadClosureJsLibraryInfo(key.path()).getNamespaceList());
+          }
+        });
+  }
+
+  ClosureJsLibraryModule() {}
+}
@@ -23,6 +23,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 import com.google.javascript.jscomp.lint.CheckJSDocStyle;
 import com.google.javascript.jscomp.lint.CheckMissingSemicolon;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -177,6 +178,29 @@ final class Diagnostics {
   static final ImmutableSet<DiagnosticGroup> JSCHECKER_ONLY_GROUPS = initJscheckerGroups();
   static final ImmutableMap<DiagnosticType, String> JSDOC_SUPPRESS_CODES = initJsdocSuppressCodes();
 
+  /** What {@link JsChecker} does with a diagnostic, before looking at {@code --suppress}. */
+  enum Disposition {
+    /** Reported unless suppressed. */
+    CHECK,
+    /** Reported unless suppressed, except in generated sources. */
+    LINT,
+    /** Never reported. */
+    IGNORE,
+    /** Never reported, because it belongs to another coding convention. */
+    OTHER_CONVENTION
+  }
+
+  /**
+   * Returns what {@link JsChecker} does with {@code type} when linting with {@code convention}.
+   *
+   * <p>This is called for every diagnostic, so the answers are computed for all known types when
+   * the first one is needed, and looked up by key, which caches its hash code.
+   */
+  static Disposition getDisposition(JsCheckerConvention convention, DiagnosticType type) {
+    Disposition result = Dispositions.TABLES.get(convention).get(type.key);
+    return result != null ? result : Disposition.CHECK;
+  }
+
   static ImmutableSet<DiagnosticType> getDiagnosticTypesForSuppressCode(String code) {
     DiagnosticGroup group = GROUPS.forName(code);
     if (group != null) {
@@ -243,5 +267,49 @@ final class Diagnostics {
     return ImmutableMap.copyOf(builder);
   }
 
+  /**
+   * Holder for the disposition tables.
+   *
+   * <p>They're built separately from the rest of this class, since {@link JsCheckerConvention}
+   * needs this class to be initialized first.
+   */
+  private static final class Dispositions {
+    // TODO(jart): Figure out how to support JSC_CONSTANT_WITHOUT_EXPLICIT_TYPE.
+    private static final ImmutableSet<String> IGNORED_KEYS =
+        ImmutableSet.of("JSC_CONSTANT_WITHOUT_EXPLICIT_TYPE");
+
+    static final ImmutableMap<JsCheckerConvention, ImmutableMap<String, Disposition>> TABLES =
+        initTables();
+
+    private static ImmutableMap<JsCheckerConvention, ImmutableMap<String, Disposition>>
+        initTables() {
+      Map<JsCheckerConvention, ImmutableMap<String, Disposition>> tables =
+          new EnumMap<>(JsCheckerConvention.class);
+      for (JsCheckerConvention convention : JsCheckerConvention.values()) {
+        Map<String, Disposition> table = new HashMap<>();
+        for (Map.Entry<DiagnosticType, String> group : DIAGNOSTIC_GROUPS.entries()) {
+          if (group.getValue().equals("lintChecks")) {
+            table.put(group.getKey().key, Disposition.LINT);
+          }
+        }
+        for (JsCheckerConvention other : JsCheckerConvention.values()) {
+          for (DiagnosticType type : other.diagnostics) {
+            if (!convention.diagnostics.contains(type)) {
+              table.put(type.key, Disposition.OTHER_CONVENTION);
+            }
+          }
+        }
+        for (DiagnosticType type : IGNORE_ALWAYS) {
+          table.put(type.key, Disposition.IGNORE);
+        }
+        for (String key : IGNORED_KEYS) {
+          table.put(key, Disposition.IGNORE);
+        }
+        tables.put(convention, ImmutableMap.copyOf(table));
+      }
+      return ImmutableMap.copyOf(tables);
+    }
+  }
+
   private Diagnostics() {}
 }
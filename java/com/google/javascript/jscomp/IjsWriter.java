@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.javascript.rhino.JSDocInfo;
+import com.google.javascript.rhino.Node;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * Writes a .i.js file one script at a time.
+ *
+ * <p>Scripts are printed on an executor, a few at a time, and written in the order they were added
+ * as soon as they're done, so the whole file is never held in memory. Each license is written once,
+ * before the first script that has it, the same as {@link Compiler#toSource()} does.
+ */
+final class IjsWriter implements Closeable {
+
+  /** Printed code of one script. */
+  static final class Chunk {
+    final String sourceName;
+    @Nullable final String license;
+    final String code;
+
+    Chunk(String sourceName, @Nullable String license, String code) {
+      this.sourceName = sourceName;
+      this.license = license;
+      this.code = code;
+    }
+  }
+
+  private final Compiler compiler;
+  private final Writer out;
+  private final ExecutorService executor;
+  private final int threads;
+  private final Consumer<Chunk> listener;
+  private final Deque<Future<Chunk>> pending = new ArrayDeque<>();
+  private final Set<String> licenses = new HashSet<>();
+
+  /**
+   * @param out destination, which is closed by {@link #close()}
+   * @param threads maximum number of scripts to print at the same time; with 1, scripts are
+   *     printed on the calling thread
+   * @param listener called with each chunk after it's been written
+   */
+  IjsWriter(
+      Compiler compiler,
+      Writer out,
+      ExecutorService executor,
+      int threads,
+      Consumer<Chunk> listener) {
+    this.compiler = compiler;
+    this.out = out;
+    this.executor = executor;
+    this.threads = threads;
+    this.listener = listener;
+    // The printer asks for the type registry, which is created lazily and not thread safe.
+    compiler.getTypeRegistry();
+  }
+
+  /** Prints a script of the compilation and writes it after everything added before it. */
+  void add(final Node script) throws IOException {
+    if (threads <= 1) {
+      add(print(script));
+      return;
+    }
+    while (pending.size() >= threads) {
+      writeNext();
+    }
+    pending.add(executor.submit(() -> print(script)));
+  }
+
+  /** Writes code that was printed earlier, after everything added before it. */
+  void add(Chunk chunk) throws IOException {
+    if (pending.isEmpty()) {
+      write(chunk);
+    } else {
+      pending.add(Futures.immediateFuture(chunk));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      while (!pending.isEmpty()) {
+        writeNext();
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private Chunk print(Node script) {
+    JSDocInfo info = script.getJSDocInfo();
+    String license = info != null ? info.getLicense() : null;
+    Compiler.CodeBuilder code = new Compiler.CodeBuilder();
+    if (license != null) {
+      // Makes the compiler leave it out, so write() can decide whether it's a duplicate.
+      code.addLicense(license);
+    }
+    compiler.toSource(code, 0, script);
+    return new Chunk(script.getSourceFileName(), license, code.toString());
+  }
+
+  private void writeNext() throws IOException {
+    write(Futures.getUnchecked(pending.removeFirst()));
+  }
+
+  private void write(Chunk chunk) throws IOException {
+    if (chunk.license != null && licenses.add(chunk.license)) {
+      out.append("/*\n").append(chunk.license).append("*/\n");
+    }
+    out.write(chunk.code);
+    listener.accept(chunk);
+  }
+}
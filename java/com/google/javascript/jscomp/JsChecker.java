@@ -17,30 +17,43 @@
 package com.google.javascript.jscomp;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.javascript.jscomp.JsCheckerHelper.convertPathToModuleName;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Futures;
 import com.google.javascript.jscomp.CompilerOptions.IncrementalCheckMode;
 import com.google.javascript.jscomp.CompilerOptions.LanguageMode;
 import com.google.javascript.jscomp.parsing.Config;
+import com.google.javascript.rhino.Node;
 import io.bazel.rules.closure.BuildInfo.ClosureJsLibrary;
+import io.bazel.rules.closure.worker.Annotations.Action;
 import io.bazel.rules.closure.worker.CommandLineProgram;
+import io.bazel.rules.closure.worker.FakeInputDigestMap;
+import io.bazel.rules.closure.worker.InputCache;
+import io.bazel.rules.closure.worker.Metrics;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -117,6 +130,11 @@ public final class JsChecker {
       usage = "Path of outputted ClosureJsLibrary.pbtxt file.")
   private String output = "";
 
+  @Option(
+      name = "--output_binary",
+      usage = "Path of a copy of the --output file as a length-delimited binary proto.")
+  private String outputBinary = "";
+
   @Option(
       name = "--output_ijs_file",
       usage = "Path of the generated .i.js file representing the given sources.")
@@ -127,66 +145,118 @@ public final class JsChecker {
       usage = "Name of output file for compiler errors in --nofail mode.")
   private String outputErrors = "";
 
+  @Option(
+      name = "--output_errors_format",
+      usage = "Format of --output_errors file, which is either TEXT or length-delimited PROTO"
+          + " Diagnostic messages.")
+  private ErrorsFormat outputErrorsFormat = ErrorsFormat.TEXT;
+
   @Option(
       name = "--expect_failure",
       usage = "Invert exit code and disable printing warnings")
   private boolean expectFailure;
 
+  @Option(
+      name = "--parse_threads",
+      usage = "Maximum number of sources to parse, or print to the .i.js file, at the same "
+          + "time. Use 1 to do it one by one on the compiler's thread.")
+  private int parseThreads = Runtime.getRuntime().availableProcessors();
+
+  @Option(
+      name = "--incremental",
+      usage = "When run by a persistent worker, only re-check the sources that changed since the "
+          + "last time this action was run, and reuse what was found in the others.")
+  private boolean incremental;
+
   @Option(
       name = "--help",
       usage = "Displays this message on stdout and exit")
   private boolean help;
 
+  private final List<String> arguments;
+  private final InputCache<NamespaceSet> depNamespaces;
+  private final InputCache<ParsedSource> parsedSources;
+  private final InputCache<SourceProvides> sourceProvides;
+  private final Cache<String, JsCheckerMemo> memos;
+  private final Map<Path, HashCode> inputDigests;
+  private final ExecutorService executor;
+  private final Metrics metrics;
+
+  private JsChecker(
+      List<String> arguments,
+      InputCache<NamespaceSet> depNamespaces,
+      InputCache<ParsedSource> parsedSources,
+      InputCache<SourceProvides> sourceProvides,
+      Cache<String, JsCheckerMemo> memos,
+      Map<Path, HashCode> inputDigests,
+      ExecutorService executor,
+      Metrics metrics) {
+    this.arguments = arguments;
+    this.depNamespaces = depNamespaces;
+    this.parsedSources = parsedSources;
+    this.sourceProvides = sourceProvides;
+    this.memos = memos;
+    this.inputDigests = inputDigests;
+    this.executor = executor;
+    this.metrics = metrics;
+  }
+
   private boolean run() throws IOException {
-    final JsCheckerState state = new JsCheckerState(label, legacy, testonly, roots, mysterySources);
+    final JsCheckerState state = new JsCheckerState(label, legacy, testonly, roots);
     final Set<String> actuallySuppressed = new HashSet<>();
 
+    metrics.tag("label", label);
+
     // read provided files created by this program on deps
-    for (String dep : deps) {
-      state.provided.addAll(
-          JsCheckerHelper.loadClosureJsLibraryInfo(Paths.get(dep))
-              .getNamespaceList());
+    try (Metrics.Timer timer = metrics.time("deps")) {
+      for (String dep : deps) {
+        state.providedByDeps.add(depNamespaces.load(Paths.get(dep)));
+      }
     }
 
     Map<String, String> labels = new HashMap<>();
     labels.put("", label);
     Set<String> modules = new LinkedHashSet<>();
+    final List<String> inputs = new ArrayList<>(sources);
     for (String source : sources) {
-      for (String module : convertPathToModuleName(source, state.roots).asSet()) {
+      for (String module : state.roots.toModuleName(source).asSet()) {
         modules.add(module);
         labels.put(module, label);
         state.provides.add(module);
       }
     }
 
+    // The entries of archives aren't known until they're read, so those are compiled like srcs.
+    List<String> mysteryFiles = new ArrayList<>();
     for (String source : mysterySources) {
-      for (String module : convertPathToModuleName(source, state.roots).asSet()) {
+      for (String module : state.roots.toModuleName(source).asSet()) {
         checkArgument(!module.startsWith("blaze-out/"),
             "oh no: %s", state.roots);
         modules.add(module);
-        state.provided.add(module);
+        if (source.endsWith(".zip")) {
+          state.provided.add(module);
+        }
+      }
+      if (source.endsWith(".zip")) {
+        inputs.add(source);
+      } else {
+        mysteryFiles.add(source);
       }
     }
 
     // configure compiler
     Compiler compiler = new Compiler();
-    CompilerOptions options = new CompilerOptions();
-    options.setLanguage(LanguageMode.ECMASCRIPT_2018);
-    options.setStrictModeInput(true);
-    options.setIncrementalChecks(IncrementalCheckMode.GENERATE_IJS);
+    CompilerOptions options = createOptions();
     options.setCodingConvention(convention.convention);
-    options.setSkipTranspilationAndCrash(true);
-    options.setContinueAfterErrors(true);
-    options.setPrettyPrint(true);
-    options.setPreserveTypeAnnotations(true);
-    options.setPreserveDetailedSourceInfo(true);
-    options.setEmitUseStrict(false);
-    options.setParseJsDocDocumentation(Config.JsDocParsing.INCLUDE_DESCRIPTIONS_NO_WHITESPACE);
     JsCheckerErrorFormatter errorFormatter =
         new JsCheckerErrorFormatter(compiler, state.roots, labels);
     errorFormatter.setColorize(true);
     JsCheckerErrorManager errorManager = new JsCheckerErrorManager(errorFormatter);
+    boolean protoErrors = !outputErrors.isEmpty() && outputErrorsFormat == ErrorsFormat.PROTO;
+    errorManager.printDiagnostics = protoErrors;
     compiler.setErrorManager(errorManager);
+    final JsCheckerMemo.Session session = incremental ? newSession(inputs) : null;
+    errorManager.session = session;
 
     // configure which error messages appear
     if (!legacy) {
@@ -197,51 +267,49 @@ public final class JsChecker {
         options.setWarningLevel(Diagnostics.GROUPS.forName(error), CheckLevel.ERROR);
       }
     }
-    final Set<DiagnosticType> suppressions = Sets.newHashSetWithExpectedSize(256);
+    ImmutableSet.Builder<DiagnosticType> suppressionsBuilder = ImmutableSet.builder();
     for (String code : suppress) {
       ImmutableSet<DiagnosticType> types = Diagnostics.getDiagnosticTypesForSuppressCode(code);
       if (types.isEmpty()) {
         System.err.println("ERROR: Bad --suppress value: " + code);
         return false;
       }
-      suppressions.addAll(types);
+      suppressionsBuilder.addAll(types);
     }
+    final ImmutableSet<DiagnosticType> suppressions = suppressionsBuilder.build();
+    final Set<DiagnosticType> conventionSuppressions = new HashSet<>();
 
     options.addWarningsGuard(
         new WarningsGuard() {
           @Override
           public CheckLevel level(JSError error) {
-            // TODO(jart): Figure out how to support this.
-            if (error.getType().key
-                    .equals("JSC_CONSTANT_WITHOUT_EXPLICIT_TYPE")) {
-              return CheckLevel.OFF;
-            }
-
-            // Closure Rules will always ignore these checks no matter what.
-            if (Diagnostics.IGNORE_ALWAYS.contains(error.getType())) {
-              return CheckLevel.OFF;
-            }
-
-            // Disable warnings specific to conventions other than the one we're using.
-            if (!convention.diagnostics.contains(error.getType())) {
-              for (JsCheckerConvention conv : JsCheckerConvention.values()) {
-                if (!conv.equals(convention)) {
-                  if (conv.diagnostics.contains(error.getType())) {
-                    suppressions.add(error.getType());
-                    return CheckLevel.OFF;
-                  }
+            DiagnosticType type = error.getType();
+            Diagnostics.Disposition disposition = Diagnostics.getDisposition(convention, type);
+            switch (disposition) {
+              case IGNORE:
+                // Closure Rules will always ignore these checks no matter what.
+                return CheckLevel.OFF;
+              case OTHER_CONVENTION:
+                // Disable warnings specific to conventions other than the one we're using.
+                conventionSuppressions.add(type);
+                if (session != null) {
+                  session.suppressedForConvention(error);
                 }
-              }
+                return CheckLevel.OFF;
+              default:
+                break;
             }
             // Disable warnings we've suppressed.
-            Collection<String> groupNames = Diagnostics.DIAGNOSTIC_GROUPS.get(error.getType());
-            if (suppressions.contains(error.getType())) {
-              actuallySuppressed.add(error.getType().key);
-              actuallySuppressed.addAll(groupNames);
+            if (suppressions.contains(type)) {
+              actuallySuppressed.add(type.key);
+              actuallySuppressed.addAll(Diagnostics.DIAGNOSTIC_GROUPS.get(type));
+              if (session != null) {
+                session.suppressedByUser(error);
+              }
               return CheckLevel.OFF;
             }
             // Ignore linter warnings on generated sources.
-            if (groupNames.contains("lintChecks")
+            if (disposition == Diagnostics.Disposition.LINT
                 && JsCheckerHelper.isGeneratedPath(error.sourceName)) {
               return CheckLevel.OFF;
             }
@@ -249,13 +317,55 @@ public final class JsChecker {
           }
         });
 
+    // learn what mystery sources provide, without compiling them
+    List<JSError> mysteryErrors = new ArrayList<>();
+    try (Metrics.Timer timer = metrics.time("mystery")) {
+      if (parseThreads > 1) {
+        loadConcurrently(sourceProvides, mysteryFiles);
+      }
+      for (String source : mysteryFiles) {
+        SourceProvides provides;
+        try {
+          provides = sourceProvides.load(Paths.get(source));
+        } catch (IOException e) {
+          mysteryErrors.add(JSError.make(AbstractCompiler.READ_ERROR, source, e.getMessage()));
+          continue;
+        }
+        CheckStrictDeps.FirstPass.provideMysterySource(state, source, provides);
+      }
+    }
+
     // Run the compiler.
-    compiler.setPassConfig(new JsCheckerPassConfig(state, options));
+    compiler.setPassConfig(new JsCheckerPassConfig(state, options, session));
     compiler.disableThreads();
-    compiler.compile(
-        ImmutableList.<SourceFile>of(),
-        getSourceFiles(Iterables.concat(sources, mysterySources)),
-        options);
+    JSModule module = new JSModule(JSModule.STRONG_MODULE_NAME);
+    for (CompilerInput input : getCompilerInputs(inputs)) {
+      module.add(input);
+    }
+    try (Metrics.Timer timer = metrics.time("compile")) {
+      compiler.compileModules(
+          ImmutableList.<SourceFile>of(), ImmutableList.of(module), options);
+    }
+    metrics.add("sources", sources.size());
+    metrics.add("mystery_sources", mysterySources.size());
+    for (JSError error : mysteryErrors) {
+      errorManager.report(CheckLevel.ERROR, error);
+    }
+
+    // Replay what the per-script checks found last time in the sources that didn't change.
+    if (session != null) {
+      for (JsCheckerMemo.Script script : session.getReused()) {
+        conventionSuppressions.addAll(script.conventionSuppressed);
+        for (DiagnosticType type : script.userSuppressed) {
+          actuallySuppressed.add(type.key);
+          actuallySuppressed.addAll(Diagnostics.DIAGNOSTIC_GROUPS.get(type));
+        }
+        for (JsCheckerMemo.Report report : script.reports) {
+          errorManager.report(report.level, report.toError());
+        }
+      }
+      metrics.add("rechecked_sources", session.getRecheckedCount());
+    }
 
     // In order for suppress to be maintainable, we need to make sure the suppress codes relating to
     // linting were actually suppressed. However we can only offer this safety on the checks over
@@ -272,71 +382,262 @@ public final class JsChecker {
       }
     }
 
-    // TODO: Make compiler.compile() package private so we don't have to do this.
-    errorManager.stderr.clear();
-    errorManager.generateReport();
+    try (Metrics.Timer timer = metrics.time("output")) {
+      // TODO: Make compiler.compile() package private so we don't have to do this.
+      errorManager.clearPrinted();
+      errorManager.generateReport();
 
-    // write errors
-    if (!expectFailure) {
-      for (String line : errorManager.stderr) {
-        System.err.println(line);
+      // write errors
+      if (!expectFailure) {
+        for (String line : errorManager.getStderr()) {
+          System.err.println(line);
+        }
+      }
+      if (protoErrors) {
+        JsCheckerHelper.writeDiagnostics(Paths.get(outputErrors), errorManager.diagnostics);
+      } else if (!outputErrors.isEmpty()) {
+        Files.write(Paths.get(outputErrors), errorManager.getStderr(), UTF_8);
+      }
+
+      // write .i.js type summary for this library
+      if (!outputIjsFile.isEmpty()) {
+        writeInterfaces(compiler, session);
+      }
+
+      // write file full of information about these sauces
+      if (!output.isEmpty() || !outputBinary.isEmpty()) {
+        ClosureJsLibrary.Builder info =
+            ClosureJsLibrary.newBuilder()
+                .setLabel(label)
+                .setLegacy(legacy)
+                .addAllNamespace(state.provides)
+                .addAllModule(modules);
+        if (!legacy) {
+          for (DiagnosticType suppression : Sets.union(suppressions, conventionSuppressions)) {
+            if (!Diagnostics.JSCHECKER_ONLY_SUPPRESS_CODES.contains(suppression.key)) {
+              info.addSuppress(suppression.key);
+            }
+          }
+        }
+        ClosureJsLibrary library = info.build();
+        if (!output.isEmpty()) {
+          JsCheckerHelper.writeClosureJsLibraryInfo(Paths.get(output), library, false);
+        }
+        if (!outputBinary.isEmpty()) {
+          JsCheckerHelper.writeClosureJsLibraryInfo(Paths.get(outputBinary), library, true);
+        }
+      }
+
+      // remember what was found, so the next run only has to check the sources that changed
+      if (session != null) {
+        JsCheckerMemo memo = session.finish();
+        if (memo != null) {
+          memos.put(getMemoKey(), memo);
+        } else {
+          memos.invalidate(getMemoKey());
+        }
       }
     }
-    if (!outputErrors.isEmpty()) {
-      Files.write(Paths.get(outputErrors), errorManager.stderr, UTF_8);
-    }
+    return errorManager.getErrorCount() == 0;
+  }
 
-    // write .i.js type summary for this library
-    if (!outputIjsFile.isEmpty()) {
-      Files.write(Paths.get(outputIjsFile), compiler.toSource().getBytes(UTF_8));
+  /**
+   * Returns a session for checking only the sources that changed, or {@code null} if the digests
+   * of the sources aren't known.
+   */
+  @Nullable
+  private JsCheckerMemo.Session newSession(List<String> inputs) {
+    if (inputDigests instanceof FakeInputDigestMap) {
+      return null;
     }
+    Map<String, HashCode> digests = new LinkedHashMap<>();
+    Set<Path> paths = new HashSet<>();
+    for (String source : inputs) {
+      Path path = Paths.get(source);
+      HashCode digest = inputDigests.get(path);
+      if (digest == null || source.endsWith(".zip") || digests.put(source, digest) != null) {
+        return null;
+      }
+      paths.add(path);
+    }
+    return new JsCheckerMemo.Session(
+        JsCheckerMemo.fingerprint(arguments, inputDigests, paths),
+        ImmutableMap.copyOf(digests),
+        memos.getIfPresent(getMemoKey()));
+  }
 
-    // write file full of information about these sauces
-    if (!output.isEmpty()) {
-      ClosureJsLibrary.Builder info =
-          ClosureJsLibrary.newBuilder()
-              .setLabel(label)
-              .setLegacy(legacy)
-              .addAllNamespace(state.provides)
-              .addAllModule(modules);
-      if (!legacy) {
-        for (DiagnosticType suppression : suppressions) {
-          if (!Diagnostics.JSCHECKER_ONLY_SUPPRESS_CODES.contains(suppression.key)) {
-            info.addSuppress(suppression.key);
-          }
+  private String getMemoKey() {
+    return output.isEmpty() ? label : output;
+  }
+
+  /**
+   * Writes the .i.js file. In incremental mode, the code printed last time is reused for the
+   * sources that weren't checked, and the code of every source is remembered for next time.
+   */
+  private void writeInterfaces(Compiler compiler, @Nullable final JsCheckerMemo.Session session)
+      throws IOException {
+    Node jsRoot = compiler.getRoot().getLastChild();
+    boolean reuse = session != null && session.isPlanned();
+    try (IjsWriter ijs =
+        new IjsWriter(
+            compiler,
+            Files.newBufferedWriter(Paths.get(outputIjsFile), UTF_8),
+            executor,
+            parseThreads,
+            chunk -> {
+              if (session != null) {
+                session.printed(chunk);
+              }
+            })) {
+      if (!reuse || session.isFull()) {
+        for (Node script = jsRoot.getFirstChild(); script != null; script = script.getNext()) {
+          ijs.add(script);
+        }
+        return;
+      }
+      // Scripts that weren't checked have been detached, so only the others are left.
+      Node script = jsRoot.getFirstChild();
+      for (String source : sources) {
+        if (session.isRechecked(source)) {
+          ijs.add(script);
+          script = script.getNext();
+        } else {
+          ijs.add(session.getReusedInterface(source));
         }
       }
-      Files.write(Paths.get(output), info.build().toString().getBytes(UTF_8));
     }
+  }
 
-    return errorManager.getErrorCount() == 0;
+  /** Serialization formats for the {@code --output_errors} file. */
+  enum ErrorsFormat {
+    TEXT,
+    PROTO
+  }
+
+  /** Returns compiler options shared by every check, regardless of coding convention. */
+  static CompilerOptions createOptions() {
+    CompilerOptions options = new CompilerOptions();
+    options.setLanguage(LanguageMode.ECMASCRIPT_2018);
+    options.setStrictModeInput(true);
+    options.setIncrementalChecks(IncrementalCheckMode.GENERATE_IJS);
+    options.setSkipTranspilationAndCrash(true);
+    options.setContinueAfterErrors(true);
+    options.setPrettyPrint(true);
+    options.setPreserveTypeAnnotations(true);
+    options.setPreserveDetailedSourceInfo(true);
+    options.setEmitUseStrict(false);
+    options.setParseJsDocDocumentation(Config.JsDocParsing.INCLUDE_DESCRIPTIONS_NO_WHITESPACE);
+    return options;
   }
 
-  private static ImmutableList<SourceFile> getSourceFiles(Iterable<String> filenames)
+  private ImmutableList<CompilerInput> getCompilerInputs(Iterable<String> filenames)
       throws IOException {
-    ImmutableList.Builder<SourceFile> result = new ImmutableList.Builder<>();
+    if (parseThreads > 1) {
+      try (Metrics.Timer timer = metrics.time("parse")) {
+        loadConcurrently(parsedSources, filenames);
+      }
+    }
+    ImmutableList.Builder<CompilerInput> result = new ImmutableList.Builder<>();
     for (String filename : filenames) {
       if (filename.endsWith(".zip")) {
-        result.addAll(SourceFile.fromZipFile(filename, UTF_8));
-      } else {
-        result.add(SourceFile.fromFile(filename));
+        for (SourceFile file : SourceFile.fromZipFile(filename, UTF_8)) {
+          result.add(new CompilerInput(file));
+        }
+        continue;
       }
+      ParsedSource parsed;
+      try {
+        parsed = parsedSources.load(Paths.get(filename));
+      } catch (IOException e) {
+        // Let the compiler report it like any other unreadable file.
+        result.add(new CompilerInput(SourceFile.fromFile(filename)));
+        continue;
+      }
+      result.add(new CompilerInput(parsed.newAst()));
     }
     return result.build();
   }
 
+  /**
+   * Loads sources into a cache using at most {@link #parseThreads} threads.
+   *
+   * <p>The results are then used in their original order, so the output is the same as if the
+   * sources had been parsed one by one. Files that fail to load are skipped, so they can be
+   * reported when they're loaded again.
+   */
+  private void loadConcurrently(final InputCache<?> cache, Iterable<String> filenames) {
+    final List<Path> paths = new ArrayList<>();
+    for (String filename : filenames) {
+      if (!filename.endsWith(".zip")) {
+        paths.add(Paths.get(filename));
+      }
+    }
+    final AtomicInteger next = new AtomicInteger();
+    List<Future<?>> tasks = new ArrayList<>();
+    for (int i = 0; i < Math.min(parseThreads, paths.size()); i++) {
+      tasks.add(
+          executor.submit(
+              () -> {
+                int j;
+                while ((j = next.getAndIncrement()) < paths.size()) {
+                  try {
+                    cache.load(paths.get(j));
+                  } catch (IOException e) {
+                    // Handled by the caller.
+                  }
+                }
+              }));
+    }
+    for (Future<?> task : tasks) {
+      Futures.getUnchecked(task);
+    }
+  }
+
   public static final class Program implements CommandLineProgram {
 
+    private final InputCache<NamespaceSet> depNamespaces;
+    private final InputCache<ParsedSource> parsedSources;
+    private final InputCache<SourceProvides> sourceProvides;
+    private final Cache<String, JsCheckerMemo> memos;
+    private final Map<Path, HashCode> inputDigests;
+    private final ExecutorService executor;
+    private final Metrics metrics;
+
     @Inject
-    Program() {}
+    Program(
+        InputCache<NamespaceSet> depNamespaces,
+        InputCache<ParsedSource> parsedSources,
+        InputCache<SourceProvides> sourceProvides,
+        Cache<String, JsCheckerMemo> memos,
+        @Action Map<Path, HashCode> inputDigests,
+        ExecutorService executor,
+        @Action Metrics metrics) {
+      this.depNamespaces = depNamespaces;
+      this.parsedSources = parsedSources;
+      this.sourceProvides = sourceProvides;
+      this.memos = memos;
+      this.inputDigests = inputDigests;
+      this.executor = executor;
+      this.metrics = metrics;
+    }
 
     @Override
     public Integer apply(Iterable<String> args) {
-      JsChecker checker = new JsChecker();
+      ImmutableList<String> arguments = ImmutableList.copyOf(args);
+      JsChecker checker =
+          new JsChecker(
+              arguments,
+              depNamespaces,
+              parsedSources,
+              sourceProvides,
+              memos,
+              inputDigests,
+              executor,
+              metrics);
       CmdLineParser parser = new CmdLineParser(checker);
       parser.setUsageWidth(80);
       try {
-        parser.parseArgument(ImmutableList.copyOf(args));
+        parser.parseArgument(arguments);
       } catch (CmdLineException e) {
         System.err.println(e.getMessage());
         System.err.println(USAGE);
@@ -17,14 +17,17 @@
 package com.google.javascript.jscomp;
 
 import static com.google.common.base.Strings.nullToEmpty;
-import static com.google.javascript.jscomp.JsCheckerHelper.convertPathToModuleName;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Ordering;
 import com.google.debugging.sourcemap.proto.Mapping.OriginalMapping;
 import com.google.javascript.jscomp.SourceExcerptProvider.ExcerptFormatter;
 import com.google.javascript.jscomp.SourceExcerptProvider.SourceExcerpt;
 import com.google.javascript.rhino.TokenUtil;
+import io.bazel.rules.closure.BuildInfo.Diagnostic;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -34,13 +37,18 @@ final class JsCheckerErrorFormatter extends AbstractMessageFormatter {
   private static final ExcerptFormatter excerptFormatter =
       new LightweightMessageFormatter.LineNumberingFormatter();
 
-  private final List<String> roots;
+  private final ModuleRoots roots;
   private final Map<String, String> labels;
   private boolean colorize;
 
+  // Reverse mappings and excerpts, which are looked up once per position, since legacy code tends
+  // to get many diagnostics on the same lines.
+  private final Map<List<Object>, Optional<OriginalMapping>> mappings = new HashMap<>();
+  private final Map<List<Object>, Optional<String>> excerpts = new HashMap<>();
+
   JsCheckerErrorFormatter(
       SourceExcerptProvider source,
-      List<String> roots,
+      ModuleRoots roots,
       Map<String, String> labels) {
     super(source);
     this.roots = roots;
@@ -75,8 +83,7 @@ final class JsCheckerErrorFormatter extends AbstractMessageFormatter {
     String nonMappedPosition = formatPosition(sourceName, lineNumber);
 
     // Check if we can reverse-map the source.
-    OriginalMapping mapping = source == null ? null : source.getSourceMapping(
-        error.sourceName, error.lineNumber, error.getCharno());
+    OriginalMapping mapping = getMapping(source, error.sourceName, error.lineNumber, charno);
     if (mapping == null) {
       boldLine.append(nonMappedPosition);
     } else {
@@ -90,9 +97,7 @@ final class JsCheckerErrorFormatter extends AbstractMessageFormatter {
     }
 
     // extract source excerpt
-    String sourceExcerpt = source == null ? null :
-        EXCERPT.get(
-            source, sourceName, lineNumber, excerptFormatter);
+    String sourceExcerpt = getExcerpt(source, sourceName, lineNumber);
 
     boldLine.append(getLevelName(warning ? CheckLevel.WARNING : CheckLevel.ERROR));
     boldLine.append(" - ");
@@ -122,7 +127,7 @@ final class JsCheckerErrorFormatter extends AbstractMessageFormatter {
     }
 
     // Help the user know how to suppress this warning.
-    String module = convertPathToModuleName(nullToEmpty(error.sourceName), roots).or("");
+    String module = roots.toModuleName(nullToEmpty(error.sourceName)).or("");
     String label = labels.get(module);
     if (label == null) {
       if (colorize) {
@@ -173,6 +178,60 @@ final class JsCheckerErrorFormatter extends AbstractMessageFormatter {
     return b.toString();
   }
 
+  /**
+   * Returns a record of {@code error} for tools, which is much cheaper than formatting it, since no
+   * source excerpt is read.
+   */
+  Diagnostic toDiagnostic(CheckLevel level, JSError error) {
+    Diagnostic.Builder result =
+        Diagnostic.newBuilder()
+            .setType(error.getType().key)
+            .setLevel(level == CheckLevel.ERROR ? Diagnostic.Level.ERROR : Diagnostic.Level.WARNING)
+            .setSource(nullToEmpty(error.sourceName))
+            .setLine(Math.max(error.lineNumber, 0))
+            .setColumn(error.getCharno())
+            .setDescription(nullToEmpty(error.description))
+            .addSuppress(error.getType().key);
+    String label = labels.get(roots.toModuleName(nullToEmpty(error.sourceName)).or(""));
+    if (label != null) {
+      result.setLabel(label);
+    }
+    for (String groupName : getGroupSuppressCodes(error)) {
+      if (!groupName.startsWith("old")) {
+        result.addSuppress(groupName);
+      }
+    }
+    return result.build();
+  }
+
+  private OriginalMapping getMapping(
+      SourceExcerptProvider source, String sourceName, int lineNumber, int charno) {
+    if (source == null) {
+      return null;
+    }
+    List<Object> key = Arrays.<Object>asList(sourceName, lineNumber, charno);
+    Optional<OriginalMapping> result = mappings.get(key);
+    if (result == null) {
+      result = Optional.fromNullable(source.getSourceMapping(sourceName, lineNumber, charno));
+      mappings.put(key, result);
+    }
+    return result.orNull();
+  }
+
+  private String getExcerpt(SourceExcerptProvider source, String sourceName, int lineNumber) {
+    if (source == null) {
+      return null;
+    }
+    List<Object> key = Arrays.<Object>asList(sourceName, lineNumber);
+    Optional<String> result = excerpts.get(key);
+    if (result == null) {
+      result =
+          Optional.fromNullable(EXCERPT.get(source, sourceName, lineNumber, excerptFormatter));
+      excerpts.put(key, result);
+    }
+    return result.orNull();
+  }
+
   private static ImmutableList<String> getGroupSuppressCodes(JSError error) {
     return Ordering.natural()
         .immutableSortedCopy(Diagnostics.DIAGNOSTIC_GROUPS.get(error.getType()));
@@ -16,35 +16,94 @@
 
 package com.google.javascript.jscomp;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import io.bazel.rules.closure.BuildInfo.Diagnostic;
 import java.util.ArrayList;
 import java.util.List;
+import javax.annotation.Nullable;
 
 final class JsCheckerErrorManager extends BasicErrorManager {
 
-  private final MessageFormatter formatter;
-  final List<String> stderr = new ArrayList<>();
+  private final JsCheckerErrorFormatter formatter;
 
-  JsCheckerErrorManager(MessageFormatter formatter) {
+  // Lines of the report, which are formatted the first time they're needed. Formatting looks up a
+  // source excerpt for each diagnostic, which is wasted when nothing prints the text.
+  private final List<Supplier<String>> lines = new ArrayList<>();
+  @Nullable private String summary;
+
+  // Counts of what was printed by the error managers of other shards of the same compilation.
+  private int shardErrorCount;
+  private int shardWarningCount;
+
+  // Records of the diagnostics that were printed, if printDiagnostics is set.
+  final List<Diagnostic> diagnostics = new ArrayList<>();
+  boolean printDiagnostics;
+
+  // Receives every diagnostic that gets reported, when JsChecker runs in incremental mode.
+  @Nullable JsCheckerMemo.Session session;
+
+  JsCheckerErrorManager(JsCheckerErrorFormatter formatter) {
     this.formatter = formatter;
   }
 
   @Override
-  public void println(CheckLevel level, JSError error) {
-    stderr.add(error.format(level, formatter));
+  public void report(CheckLevel level, JSError error) {
+    super.report(level, error);
+    if (session != null) {
+      session.reported(level, error);
+    }
+  }
+
+  /** Returns text of the report, formatting each line the first time it's asked for. */
+  List<String> getStderr() {
+    List<String> result = Lists.transform(lines, Supplier::get);
+    return summary == null
+        ? result
+        : ImmutableList.<String>builder().addAll(result).add(summary).build();
+  }
+
+  /** Forgets everything printed so far. */
+  void clearPrinted() {
+    lines.clear();
+    summary = null;
+    diagnostics.clear();
+  }
+
+  /**
+   * Adds the diagnostics printed by the error manager of one shard of a compilation, without its
+   * summary, so the summary printed by this one covers every shard.
+   */
+  void addShard(JsCheckerErrorManager shard) {
+    lines.addAll(shard.lines);
+    diagnostics.addAll(shard.diagnostics);
+    shardErrorCount += shard.getErrorCount();
+    shardWarningCount += shard.getWarningCount();
+  }
+
+  @Override
+  public void println(final CheckLevel level, final JSError error) {
+    lines.add(Suppliers.memoize(() -> error.format(level, formatter)));
+    if (printDiagnostics) {
+      diagnostics.add(formatter.toDiagnostic(level, error));
+    }
   }
 
   @Override
   public void printSummary() {
-    if (getErrorCount() + getWarningCount() == 0) {
+    int errors = getErrorCount() + shardErrorCount;
+    int warnings = getWarningCount() + shardWarningCount;
+    if (errors + warnings == 0) {
       return;
     }
     if (getTypedPercent() > 0.0) {
-      stderr.add(
+      summary =
           String.format("%d error(s), %d warning(s), %.1f%% typed%n",
-              getErrorCount(), getWarningCount(), getTypedPercent()));
+              errors, warnings, getTypedPercent());
     } else {
-      stderr.add(
-          String.format("%d error(s), %d warning(s)%n", getErrorCount(), getWarningCount()));
+      summary = String.format("%d error(s), %d warning(s)%n", errors, warnings);
     }
   }
 }
@@ -16,13 +16,16 @@
 
 package com.google.javascript.jscomp;
 
-import static com.google.common.base.Preconditions.checkArgument;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import com.google.common.base.Optional;
+import com.google.common.base.Ascii;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.TextFormat;
 import io.bazel.rules.closure.BuildInfo.ClosureJsLibrary;
+import io.bazel.rules.closure.BuildInfo.Diagnostic;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -33,36 +36,76 @@ final class JsCheckerHelper {
         || path.startsWith("bazel-out/");
   }
 
-  static Optional<String> convertPathToModuleName(String path, Iterable<String> roots) {
-    checkArgument(!path.startsWith("/"));
-    if (!path.endsWith(".js") && !path.endsWith(".zip")) {
-      return Optional.absent();
-    }
-    String module = path;
-    for (String root : roots) {
-      if (module.startsWith(root + "/")) {
-        module = module.substring(root.length() + 1);
-        break;
-      }
-    }
-
-    String moduleOrZipName = module.split("!")[0];
-    return Optional.of("/" + moduleOrZipName);
-  }
-
   static String normalizeClosureNamespace(String namespace) {
     return "goog:" + namespace;
   }
 
-  /** Loads pbtxt info file generated by closure_js_library. */
+  /**
+   * Loads info file generated by closure_js_library.
+   *
+   * <p>The file may either be a pbtxt or a length-delimited binary proto. The format is detected
+   * automatically, so info files from older versions of JsChecker continue to work.
+   */
   static ClosureJsLibrary loadClosureJsLibraryInfo(Path path) throws IOException {
+    byte[] data = Files.readAllBytes(path);
+    int offset = getDelimitedBinaryOffset(data);
+    if (offset != -1) {
+      return ClosureJsLibrary.parser().parseFrom(data, offset, data.length - offset);
+    }
     ClosureJsLibrary.Builder build = ClosureJsLibrary.newBuilder();
-    TextFormat.getParser().merge(
-        new String(Files.readAllBytes(path), UTF_8),
-        build);
+    TextFormat.getParser().merge(new String(data, UTF_8), build);
     return build.build();
   }
 
+  /** Writes info file for closure_js_library in either text or length-delimited binary format. */
+  static void writeClosureJsLibraryInfo(Path path, ClosureJsLibrary info, boolean binary)
+      throws IOException {
+    if (binary) {
+      try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(path))) {
+        info.writeDelimitedTo(output);
+      }
+    } else {
+      Files.write(path, info.toString().getBytes(UTF_8));
+    }
+  }
+
+  /** Writes diagnostics for {@code --output_errors_format=proto} as length-delimited protos. */
+  static void writeDiagnostics(Path path, Iterable<Diagnostic> diagnostics) throws IOException {
+    try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(path))) {
+      for (Diagnostic diagnostic : diagnostics) {
+        diagnostic.writeDelimitedTo(output);
+      }
+    }
+  }
+
+  /**
+   * Returns offset of message if {@code data} is a length-delimited binary proto, otherwise -1.
+   *
+   * <p>The text format always begins with a field name, comment, or whitespace. So we consider
+   * data binary if its leading varint accounts for exactly the remaining bytes, and the first of
+   * those bytes is a field tag rather than the continuation of a word.
+   */
+  private static int getDelimitedBinaryOffset(byte[] data) {
+    if (data.length == 0) {
+      return -1;
+    }
+    CodedInputStream input = CodedInputStream.newInstance(data);
+    int length;
+    try {
+      length = input.readRawVarint32();
+    } catch (IOException e) {
+      return -1;
+    }
+    int offset = input.getTotalBytesRead();
+    if (length != data.length - offset) {
+      return -1;
+    }
+    if (length > 0 && Ascii.isLowerCase((char) data[offset])) {
+      return -1;
+    }
+    return offset;
+  }
+
   /** Returns {@code true} if error was produced by code generated by compiler passes. */
   static boolean isInSyntheticCode(JSError error) {
     return error.sourceName != null
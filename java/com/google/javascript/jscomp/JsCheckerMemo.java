@@ -0,0 +1,361 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.javascript.jscomp.NodeTraversal.AbstractShallowCallback;
+import com.google.javascript.rhino.Node;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * Results of a {@link JsChecker} action, kept by a persistent worker so the next run of the same
+ * action only has to check the sources that changed.
+ *
+ * <p>Only the checks that look at one script at a time are skipped. Parsing, module metadata and
+ * strict dependency checking still happen for every source, since they need the whole library.
+ * For each unchanged source, the diagnostics and suppressions those checks produced last time are
+ * replayed, and its part of the .i.js file is reused.
+ *
+ * <p>A memo is only used if the flags and every input other than the sources are the same as last
+ * time, and if the sources still provide and declare the same namespaces, since that's what the
+ * per-script checks can see of the other scripts.
+ */
+final class JsCheckerMemo {
+
+  // Rough number of bytes retained by each script and diagnostic, excluding its strings.
+  private static final int SCRIPT_OVERHEAD = 256;
+  private static final int REPORT_OVERHEAD = 128;
+
+  final HashCode fingerprint;
+  final HashCode layout;
+  final ImmutableMap<String, Script> scripts;
+
+  private JsCheckerMemo(
+      HashCode fingerprint, HashCode layout, ImmutableMap<String, Script> scripts) {
+    this.fingerprint = fingerprint;
+    this.layout = layout;
+    this.scripts = scripts;
+  }
+
+  /** Returns approximate number of bytes retained by this memo. */
+  int weigh() {
+    int result = 0;
+    for (Script script : scripts.values()) {
+      result += SCRIPT_OVERHEAD + 2 * script.ijs.code.length();
+      if (script.ijs.license != null) {
+        result += 2 * script.ijs.license.length();
+      }
+      for (Report report : script.reports) {
+        result += REPORT_OVERHEAD + 2 * report.description.length();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Hashes everything about an action except the contents of its sources.
+   *
+   * @param args flags passed to the program, which include the paths of the sources
+   * @param digests digests of all inputs to the action
+   * @param sources paths of the sources, whose digests are left out
+   */
+  static HashCode fingerprint(
+      Iterable<String> args, Map<Path, HashCode> digests, Set<Path> sources) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (String arg : args) {
+      hasher.putString(arg, UTF_8).putByte((byte) 0);
+    }
+    Map<String, HashCode> others = new TreeMap<>();
+    for (Map.Entry<Path, HashCode> entry : digests.entrySet()) {
+      if (!sources.contains(entry.getKey())) {
+        others.put(entry.getKey().toString(), entry.getValue());
+      }
+    }
+    for (Map.Entry<String, HashCode> entry : others.entrySet()) {
+      hasher
+          .putString(entry.getKey(), UTF_8)
+          .putByte((byte) 0)
+          .putBytes(entry.getValue().asBytes());
+    }
+    return hasher.hash();
+  }
+
+  /** Hashes the namespaces each script provides and how it declares them. */
+  static HashCode layout(AbstractCompiler compiler, Node root) {
+    final Hasher hasher = Hashing.sha256().newHasher();
+    NodeTraversal.traverse(
+        compiler,
+        root,
+        new AbstractShallowCallback() {
+          @Override
+          public void visit(NodeTraversal t, Node n, Node parent) {
+            if (n.isScript()) {
+              hasher
+                  .putString(n.getSourceFileName(), UTF_8)
+                  .putBoolean(n.hasChildren() && n.getFirstChild().isModuleBody())
+                  .putByte((byte) 0);
+            } else if (n.isCall()
+                && (n.getFirstChild().matchesQualifiedName("goog.provide")
+                    || n.getFirstChild().matchesQualifiedName("goog.module")
+                    || n.getFirstChild().matchesQualifiedName("goog.declareModuleId")
+                    || n.getFirstChild()
+                        .matchesQualifiedName("goog.module.declareLegacyNamespace"))) {
+              hasher.putString(n.getFirstChild().getQualifiedName(), UTF_8).putByte((byte) 0);
+              if (n.getLastChild().isString()) {
+                hasher.putString(n.getLastChild().getString(), UTF_8).putByte((byte) 0);
+              }
+            }
+          }
+        });
+    return hasher.hash();
+  }
+
+  /** Results of the per-script checks for one source. */
+  static final class Script {
+    final HashCode digest;
+    final ImmutableList<Report> reports;
+    final ImmutableSet<DiagnosticType> conventionSuppressed;
+    final ImmutableSet<DiagnosticType> userSuppressed;
+    final IjsWriter.Chunk ijs;
+
+    private Script(
+        HashCode digest,
+        ImmutableList<Report> reports,
+        ImmutableSet<DiagnosticType> conventionSuppressed,
+        ImmutableSet<DiagnosticType> userSuppressed,
+        IjsWriter.Chunk ijs) {
+      this.digest = digest;
+      this.reports = reports;
+      this.conventionSuppressed = conventionSuppressed;
+      this.userSuppressed = userSuppressed;
+      this.ijs = ijs;
+    }
+  }
+
+  /**
+   * Diagnostic that was reported to the error manager.
+   *
+   * <p>{@link JSError} is not kept, since it can hold on to the AST of its compilation.
+   */
+  static final class Report {
+    final CheckLevel level;
+    final String sourceName;
+    final int lineNumber;
+    final int charno;
+    final DiagnosticType type;
+    final String description;
+
+    private Report(CheckLevel level, JSError error) {
+      this.level = level;
+      this.sourceName = error.sourceName;
+      this.lineNumber = error.lineNumber;
+      this.charno = error.getCharno();
+      this.type = error.getType();
+      this.description = error.description;
+    }
+
+    /** Returns an equivalent error, with the description that was already formatted. */
+    JSError toError() {
+      return JSError.make(
+          sourceName,
+          lineNumber,
+          charno,
+          DiagnosticType.make(type.key, type.level, "{0}"),
+          description);
+    }
+  }
+
+  /**
+   * Records the results of one action and decides which of its sources need to be checked.
+   *
+   * <p>The per-script passes must be run between {@link #startRecording} and {@link
+   * #stopRecording}, so everything they report is attributed to a source. If anything is reported
+   * without a source, no memo is produced, since it couldn't be replayed faithfully.
+   */
+  static final class Session {
+    private final HashCode fingerprint;
+    private final ImmutableMap<String, HashCode> digests;
+    @Nullable private final JsCheckerMemo previous;
+    private final Map<String, List<Report>> reports = new HashMap<>();
+    private final SetMultimap<String, DiagnosticType> conventionSuppressed = HashMultimap.create();
+    private final SetMultimap<String, DiagnosticType> userSuppressed = HashMultimap.create();
+    private final Map<String, IjsWriter.Chunk> interfaces = new HashMap<>();
+    private HashCode layout;
+    private Set<String> rechecked;
+    private boolean recording;
+    private boolean incomplete;
+
+    /**
+     * @param fingerprint result of {@link JsCheckerMemo#fingerprint} for this action
+     * @param digests digests of the sources, in the order they're passed to the compiler
+     * @param previous memo of the last successful run of this action, if any
+     */
+    Session(
+        HashCode fingerprint,
+        ImmutableMap<String, HashCode> digests,
+        @Nullable JsCheckerMemo previous) {
+      this.fingerprint = fingerprint;
+      this.digests = digests;
+      this.previous = previous;
+    }
+
+    /** Decides which sources to check, once the layout of the library is known. */
+    void plan(HashCode layout) {
+      this.layout = layout;
+      if (previous == null
+          || !previous.fingerprint.equals(fingerprint)
+          || !previous.layout.equals(layout)) {
+        rechecked = digests.keySet();
+        return;
+      }
+      rechecked = new HashSet<>();
+      for (Map.Entry<String, HashCode> entry : digests.entrySet()) {
+        Script script = previous.scripts.get(entry.getKey());
+        if (script == null || !script.digest.equals(entry.getValue())) {
+          rechecked.add(entry.getKey());
+        }
+      }
+    }
+
+    /** Returns {@code true} once {@link #plan} has been called. */
+    boolean isPlanned() {
+      return rechecked != null;
+    }
+
+    /** Returns {@code true} if every source has to be checked. */
+    boolean isFull() {
+      checkState(isPlanned(), "not planned");
+      return rechecked.size() == digests.size();
+    }
+
+    boolean isRechecked(String sourceName) {
+      checkState(isPlanned(), "not planned");
+      return rechecked.contains(sourceName);
+    }
+
+    int getRecheckedCount() {
+      return isPlanned() ? rechecked.size() : 0;
+    }
+
+    /** Returns results from the previous run for the sources that weren't checked. */
+    List<Script> getReused() {
+      List<Script> result = new ArrayList<>();
+      if (!isPlanned()) {
+        return result;
+      }
+      for (String source : digests.keySet()) {
+        if (!isRechecked(source)) {
+          result.add(previous.scripts.get(source));
+        }
+      }
+      return result;
+    }
+
+    void startRecording() {
+      recording = true;
+    }
+
+    void stopRecording() {
+      recording = false;
+    }
+
+    /** Called for each diagnostic that made it past the warnings guard. */
+    void reported(CheckLevel level, JSError error) {
+      if (recording && isAttributable(error)) {
+        reports
+            .computeIfAbsent(error.sourceName, k -> new ArrayList<>())
+            .add(new Report(level, error));
+      }
+    }
+
+    /** Called when the guard turns off a diagnostic that belongs to another coding convention. */
+    void suppressedForConvention(JSError error) {
+      if (recording && isAttributable(error)) {
+        conventionSuppressed.put(error.sourceName, error.getType());
+      }
+    }
+
+    /** Called when the guard turns off a diagnostic because of {@code --suppress}. */
+    void suppressedByUser(JSError error) {
+      if (recording && isAttributable(error)) {
+        userSuppressed.put(error.sourceName, error.getType());
+      }
+    }
+
+    /** Saves the .i.js code that was written for a source. */
+    void printed(IjsWriter.Chunk chunk) {
+      interfaces.put(chunk.sourceName, chunk);
+    }
+
+    /** Returns the .i.js code printed last time for a source that wasn't checked. */
+    IjsWriter.Chunk getReusedInterface(String sourceName) {
+      checkState(!isRechecked(sourceName), "%s was checked", sourceName);
+      return previous.scripts.get(sourceName).ijs;
+    }
+
+    /** Returns memo for the next run of this action, or {@code null} if it can't be replayed. */
+    @Nullable
+    JsCheckerMemo finish() {
+      if (incomplete || !isPlanned()) {
+        return null;
+      }
+      ImmutableMap.Builder<String, Script> scripts = ImmutableMap.builder();
+      for (Map.Entry<String, HashCode> entry : digests.entrySet()) {
+        String source = entry.getKey();
+        if (!isRechecked(source)) {
+          scripts.put(source, previous.scripts.get(source));
+          continue;
+        }
+        scripts.put(
+            source,
+            new Script(
+                entry.getValue(),
+                ImmutableList.copyOf(reports.getOrDefault(source, ImmutableList.of())),
+                ImmutableSet.copyOf(conventionSuppressed.get(source)),
+                ImmutableSet.copyOf(userSuppressed.get(source)),
+                interfaces.getOrDefault(source, new IjsWriter.Chunk(source, null, ""))));
+      }
+      return new JsCheckerMemo(fingerprint, layout, scripts.build());
+    }
+
+    private boolean isAttributable(JSError error) {
+      if (error.sourceName == null || !digests.containsKey(error.sourceName)) {
+        incomplete = true;
+        return false;
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import com.google.common.cache.Cache;
+import dagger.Module;
+import dagger.Provides;
+import io.bazel.rules.closure.worker.MemoryGovernor;
+import javax.inject.Singleton;
+
+/**
+ * Dagger module for remembering {@link JsChecker} results between worker actions.
+ *
+ * <p>When {@code --incremental} is passed, the results of each action are kept under the path of
+ * its {@code --output} file, so editing a source of a library only re-checks that source.
+ */
+@Module
+public abstract class JsCheckerMemoModule {
+
+  // Upper bound on the estimated number of bytes retained by memos.
+  private static final long MAX_CACHE_WEIGHT = 64L * 1024 * 1024;
+
+  @Provides
+  @Singleton
+  static Cache<String, JsCheckerMemo> provideJsCheckerMemoCache(MemoryGovernor governor) {
+    return governor.newCache(
+        "JsCheckerMemo", MAX_CACHE_WEIGHT, (String key, JsCheckerMemo memo) -> memo.weigh());
+  }
+
+  JsCheckerMemoModule() {}
+}
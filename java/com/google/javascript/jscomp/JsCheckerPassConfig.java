@@ -33,26 +33,43 @@ import com.google.javascript.jscomp.lint.CheckRequiresSorted;
 import com.google.javascript.jscomp.lint.CheckUnusedLabels;
 import com.google.javascript.jscomp.lint.CheckUselessBlocks;
 import com.google.javascript.jscomp.parsing.parser.FeatureSet;
+import com.google.javascript.rhino.Node;
+import java.util.ArrayList;
 import java.util.List;
+import javax.annotation.Nullable;
 
 final class JsCheckerPassConfig extends PassConfig.PassConfigDelegate {
 
   private final JsCheckerState state;
+  @Nullable private final JsCheckerMemo.Session session;
 
-  JsCheckerPassConfig(JsCheckerState state, CompilerOptions options) {
+  /**
+   * @param session if not {@code null}, the per-script passes only check the sources it says need
+   *     checking, and record what they report into it
+   */
+  JsCheckerPassConfig(
+      JsCheckerState state, CompilerOptions options, @Nullable JsCheckerMemo.Session session) {
     super(new DefaultPassConfig(options));
     this.state = state;
+    this.session = session;
   }
 
   @Override
   protected List<PassFactory> getChecks() {
-    return ImmutableList.of(
-        gatherModuleMetadataPass,
-        earlyLintChecks,
-        scopedAliases,
-        closureRewriteClass,
-        lateLintChecks,
-        ijsGeneration);
+    List<PassFactory> checks = new ArrayList<>();
+    checks.add(gatherModuleMetadataPass);
+    checks.add(strictDepsFirstPass);
+    if (session != null) {
+      checks.add(planIncrementalChecks);
+    }
+    checks.add(perScript(earlyLintChecks));
+    checks.add(perScript(scopedAliases));
+    checks.add(perScript(closureRewriteClass));
+    checks.add(perScript(lateLintChecks));
+    checks.add(strictDepsSecondPass);
+    // Must come last, since it detaches the scripts it doesn't need to convert.
+    checks.add(perScript(ijsGeneration));
+    return checks;
   }
 
   @Override
@@ -76,6 +93,32 @@ final class JsCheckerPassConfig extends PassConfig.PassConfigDelegate {
         }
       };
 
+  private final PassFactory strictDepsFirstPass =
+      new PassFactory("strictDepsFirstPass", true) {
+        @Override
+        protected CompilerPass create(AbstractCompiler compiler) {
+          return new CheckStrictDeps.FirstPass(state, compiler);
+        }
+
+        @Override
+        protected FeatureSet featureSet() {
+          return FeatureSet.latest().withoutTypes();
+        }
+      };
+
+  private final PassFactory planIncrementalChecks =
+      new PassFactory("planIncrementalChecks", true) {
+        @Override
+        protected CompilerPass create(final AbstractCompiler compiler) {
+          return (Node externs, Node root) -> session.plan(JsCheckerMemo.layout(compiler, root));
+        }
+
+        @Override
+        protected FeatureSet featureSet() {
+          return FeatureSet.latest().withoutTypes();
+        }
+      };
+
   private final PassFactory earlyLintChecks =
       new PassFactory("earlyLintChecks", true) {
         @Override
@@ -98,8 +141,7 @@ final class JsCheckerPassConfig extends PassConfig.PassConfigDelegate {
                   new CheckUnusedLabels(compiler),
                   new CheckUselessBlocks(compiler),
                   new ClosureCheckModule(compiler, compiler.getModuleMetadataMap()),
-                  new CheckSetTestOnly(state, compiler),
-                  new CheckStrictDeps.FirstPass(state, compiler)));
+                  new CheckSetTestOnly(state, compiler)));
         }
 
         @Override
@@ -142,8 +184,20 @@ final class JsCheckerPassConfig extends PassConfig.PassConfigDelegate {
               compiler,
               ImmutableList.<Callback>of(
                   new CheckInterfaces(compiler),
-                  new CheckPrototypeProperties(compiler),
-                  new CheckStrictDeps.SecondPass(state, compiler)));
+                  new CheckPrototypeProperties(compiler)));
+        }
+
+        @Override
+        protected FeatureSet featureSet() {
+          return FeatureSet.latest().withoutTypes();
+        }
+      };
+
+  private final PassFactory strictDepsSecondPass =
+      new PassFactory("strictDepsSecondPass", true) {
+        @Override
+        protected CompilerPass create(AbstractCompiler compiler) {
+          return new CheckStrictDeps.SecondPass(state, compiler);
         }
 
         @Override
@@ -164,4 +218,51 @@ final class JsCheckerPassConfig extends PassConfig.PassConfigDelegate {
           return FeatureSet.latest().withoutTypes();
         }
       };
+
+  /**
+   * Wraps a pass that only looks at one script at a time.
+   *
+   * <p>Without a session, this is the same as running the pass. Otherwise whatever the pass reports
+   * is recorded, and it only sees the scripts that need checking. Passes that can't be run on a
+   * single script have the other scripts detached from the AST before they run.
+   */
+  private PassFactory perScript(final PassFactory factory) {
+    if (session == null) {
+      return factory;
+    }
+    return new PassFactory(factory.getName(), true) {
+      @Override
+      protected CompilerPass create(AbstractCompiler compiler) {
+        final CompilerPass pass = factory.create(compiler);
+        return (Node externs, Node root) -> {
+          session.startRecording();
+          try {
+            if (session.isFull()) {
+              pass.process(externs, root);
+            } else if (pass instanceof HotSwapCompilerPass) {
+              for (Node script : root.children()) {
+                if (session.isRechecked(script.getSourceFileName())) {
+                  ((HotSwapCompilerPass) pass).hotSwapScript(script, null);
+                }
+              }
+            } else {
+              for (Node script : ImmutableList.copyOf(root.children())) {
+                if (!session.isRechecked(script.getSourceFileName())) {
+                  script.detach();
+                }
+              }
+              pass.process(externs, root);
+            }
+          } finally {
+            session.stopRecording();
+          }
+        };
+      }
+
+      @Override
+      protected FeatureSet featureSet() {
+        return factory.featureSet();
+      }
+    };
+  }
 }
@@ -16,10 +16,12 @@
 
 package com.google.javascript.jscomp;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.collect.Ordering;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -29,12 +31,7 @@ final class JsCheckerState {
   final String label;
   final boolean legacy;
   final boolean testonly;
-  final ImmutableList<String> roots;
-  final ImmutableSet<String> mysterySources;
-
-  // XXX: There are actually cooler data structures we could be using here to save space. Like maybe
-  //      a trie represented as an IdentityHashMap. But it'd take too much braining for too little
-  //      benefit.
+  final ModuleRoots roots;
 
   // Set of namespaces provided by this closure_js_library.
   //
@@ -42,14 +39,16 @@ final class JsCheckerState {
   // this program is done running.
   final SortedSet<String> provides = new TreeSet<>(Ordering.natural());
 
-  // Set of namespaces provided by direct dependencies of this closure_js_library.
+  // Namespaces provided by each direct dependency of this closure_js_library.
   //
-  // The initial capacity of 9000 was chosen because nearly all closure_js_library rules will
-  // directly depend on //closure/library which has 4788 provides. This sets a very large lower
-  // bound for the size of this hash table. Since HashMap has a default load factor of 0.75, it
-  // would need to have a capacity of 6385 (4788/0.75+1) to store those namespaces without
-  // redimensioning.
-  final Set<String> provided = new HashSet<>(9000);
+  // Libraries can have hundreds of thousands of namespaces in their deps, so rather than copying
+  // them all into a hash table, we probe each dep's compact set, which the worker shares between
+  // actions.
+  final List<NamespaceSet> providedByDeps = new ArrayList<>();
+
+  // Other namespaces that this closure_js_library is allowed to use, e.g. those provided by mystery
+  // sources.
+  final Set<String> provided = new HashSet<>();
 
   // These are used to avoid flooding the user with certain types of error messages.
   final Set<String> notProvidedNamespaces = new HashSet<>();
@@ -59,12 +58,27 @@ final class JsCheckerState {
       String label,
       boolean legacy,
       boolean testonly,
-      Iterable<String> roots,
-      Iterable<String> mysterySources) {
+      Iterable<String> roots) {
     this.label = label;
     this.legacy = legacy;
     this.testonly = testonly;
-    this.roots = ImmutableList.copyOf(roots);
-    this.mysterySources = ImmutableSet.copyOf(mysterySources);
+    this.roots = new ModuleRoots(roots);
+  }
+
+  /** Returns {@code true} if {@code namespace} is provided by a dependency of this library. */
+  boolean isProvided(String namespace) {
+    if (provided.contains(namespace)) {
+      return true;
+    }
+    if (providedByDeps.isEmpty()) {
+      return false;
+    }
+    byte[] key = namespace.getBytes(UTF_8);
+    for (NamespaceSet namespaces : providedByDeps) {
+      if (namespaces.contains(key)) {
+        return true;
+      }
+    }
+    return false;
   }
 }
@@ -16,15 +16,20 @@
 
 package com.google.javascript.jscomp;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Verify.verifyNotNull;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.base.Ascii;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.PeekingIterator;
 import io.bazel.rules.closure.BuildInfo.ClosureJsLibrary;
+import io.bazel.rules.closure.worker.Annotations.Action;
 import io.bazel.rules.closure.worker.CommandLineProgram;
+import io.bazel.rules.closure.worker.InputCache;
+import io.bazel.rules.closure.worker.Metrics;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -35,6 +40,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import javax.inject.Inject;
 
 /**
@@ -73,8 +79,19 @@ public final class JsCompiler implements CommandLineProgram {
 
   private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
 
+  private final InputCache<ClosureJsLibrary> infoCache;
+  private final ExecutorService executor;
+  private final Metrics metrics;
+
   @Inject
-  JsCompiler() {}
+  JsCompiler(
+      InputCache<ClosureJsLibrary> infoCache,
+      ExecutorService executor,
+      @Action Metrics metrics) {
+    this.infoCache = checkNotNull(infoCache);
+    this.executor = checkNotNull(executor);
+    this.metrics = checkNotNull(metrics);
+  }
 
   @Override
   public Integer apply(Iterable<String> args) {
@@ -91,11 +108,13 @@ public final class JsCompiler implements CommandLineProgram {
     List<String> roots = new ArrayList<>();
     Set<DiagnosticType> globalSuppressions = new HashSet<>();
     Path outputErrors = null;
+    JsChecker.ErrorsFormat outputErrorsFormat = JsChecker.ErrorsFormat.TEXT;
     boolean expectFailure = false;
     boolean expectWarnings = false;
     boolean exportTestFunctions = false;
     boolean checksOnly = false;
     boolean disablePropertyRenaming = false;
+    int shards = 1;
 
     // Compiler flags we want to read.
     Path jsOutputFile = null;
@@ -108,11 +127,16 @@ public final class JsCompiler implements CommandLineProgram {
       String arg = iargs.next();
       switch (arg) {
         case "--info":
-          infos.add(JsCheckerHelper.loadClosureJsLibraryInfo(Paths.get(iargs.next())));
+          try (Metrics.Timer timer = metrics.time("deps")) {
+            infos.add(infoCache.load(Paths.get(iargs.next())));
+          }
           continue;
         case "--output_errors":
           outputErrors = Paths.get(iargs.next());
           continue;
+        case "--output_errors_format":
+          outputErrorsFormat = JsChecker.ErrorsFormat.valueOf(Ascii.toUpperCase(iargs.next()));
+          continue;
         case "--suppress":
           globalSuppressions.addAll(Diagnostics.getDiagnosticTypesForSuppressCode(iargs.next()));
           continue;
@@ -141,6 +165,9 @@ public final class JsCompiler implements CommandLineProgram {
         case "--disable_property_renaming":
           disablePropertyRenaming = true;
           continue;
+        case "--shards":
+          shards = Integer.parseInt(iargs.next());
+          continue;
         default:
           break;
       }
@@ -177,46 +204,72 @@ public final class JsCompiler implements CommandLineProgram {
 
     // Run the compiler, capturing error messages.
     boolean failed = false;
-    Compiler compiler = new Compiler();
-    JsCheckerErrorFormatter errorFormatter = new JsCheckerErrorFormatter(compiler, roots, labels);
-    errorFormatter.setColorize(true);
-    JsCheckerErrorManager errorManager = new JsCheckerErrorManager(errorFormatter);
-    compiler.setErrorManager(errorManager);
-    JsCompilerWarnings warnings =
-        new JsCompilerWarnings(roots, legacyModules, suppressions, globalSuppressions);
-    JsCompilerRunner runner =
-        new JsCompilerRunner(
-            passThroughArgs,
-            compiler,
-            exportTestFunctions,
-            warnings,
-            disablePropertyRenaming);
-    if (runner.shouldRunCompiler()) {
-      failed |= runner.go() != 0;
+    final ModuleRoots moduleRoots = new ModuleRoots(roots);
+    final boolean protoErrors =
+        outputErrors != null && outputErrorsFormat == JsChecker.ErrorsFormat.PROTO;
+    final JsCompilerWarnings warnings =
+        new JsCompilerWarnings(moduleRoots, legacyModules, suppressions, globalSuppressions);
+    final boolean exportTests = exportTestFunctions;
+    final boolean noPropertyRenaming = disablePropertyRenaming;
+    JsCompilerShards.Shard main =
+        newShard(
+            passThroughArgs, moduleRoots, labels, warnings, protoErrors, exportTests,
+            noPropertyRenaming);
+    JsCheckerErrorManager errorManager = main.errorManager;
+    // Every shard needs at least one source, or its compiler would read stdin.
+    shards = Math.min(shards, JsCompilerShards.countSources(passThroughArgs));
+    if (shards > 1 && jsOutputFile != null && JsCompilerShards.isShardable(passThroughArgs)) {
+      // Builds that never look beyond the source being transformed can be split up.
+      try (Metrics.Timer timer = metrics.time("compile")) {
+        failed |=
+            new JsCompilerShards(executor, shards)
+                .run(
+                    passThroughArgs,
+                    jsOutputFile,
+                    createSourceMap,
+                    shardArgs ->
+                        newShard(
+                            shardArgs, moduleRoots, labels, warnings, protoErrors, exportTests,
+                            noPropertyRenaming),
+                    errorManager);
+      }
+      errorManager.generateReport();
+      metrics.add("shards", shards);
+    } else {
+      if (main.runner.shouldRunCompiler()) {
+        try (Metrics.Timer timer = metrics.time("compile")) {
+          failed |= main.runner.go() != 0;
+        }
+      }
+      failed |= main.runner.hasErrors();
     }
-    failed |= runner.hasErrors();
+    metrics.add("infos", infos.size());
 
-    // Output error messages based on diagnostic settings.
-    if (!expectFailure && !expectWarnings) {
-      for (String line : errorManager.stderr) {
-        System.err.println(line);
+    try (Metrics.Timer timer = metrics.time("output")) {
+      // Output error messages based on diagnostic settings.
+      if (!expectFailure && !expectWarnings) {
+        for (String line : errorManager.getStderr()) {
+          System.err.println(line);
+        }
+        System.err.flush();
       }
-      System.err.flush();
-    }
-    if (outputErrors != null) {
-      Files.write(outputErrors, errorManager.stderr, UTF_8);
-    }
-    if ((failed && expectFailure) || checksOnly) {
-      // If we don't return nonzero, Bazel expects us to create every output file.
-      if (jsOutputFile != null) {
-        Files.write(jsOutputFile, EMPTY_BYTE_ARRAY);
+      if (protoErrors) {
+        JsCheckerHelper.writeDiagnostics(outputErrors, errorManager.diagnostics);
+      } else if (outputErrors != null) {
+        Files.write(outputErrors, errorManager.getStderr(), UTF_8);
+      }
+      if ((failed && expectFailure) || checksOnly) {
+        // If we don't return nonzero, Bazel expects us to create every output file.
+        if (jsOutputFile != null) {
+          Files.write(jsOutputFile, EMPTY_BYTE_ARRAY);
+        }
       }
-    }
 
-    // Make sure a source map is always created since Bazel expect that but JsCompiler
-    // may not emit sometimes (e.g compiler_level=BUNLDE)
-    if (createSourceMap != null && !Files.exists(createSourceMap)) {
-      Files.write(createSourceMap, EMPTY_BYTE_ARRAY);
+      // Make sure a source map is always created since Bazel expect that but JsCompiler
+      // may not emit sometimes (e.g compiler_level=BUNLDE)
+      if (createSourceMap != null && !Files.exists(createSourceMap)) {
+        Files.write(createSourceMap, EMPTY_BYTE_ARRAY);
+      }
     }
 
     if (!failed && expectFailure) {
@@ -224,4 +277,24 @@ public final class JsCompiler implements CommandLineProgram {
     }
     return failed == expectFailure ? 0 : 1;
   }
+
+  private static JsCompilerShards.Shard newShard(
+      List<String> args,
+      ModuleRoots roots,
+      Map<String, String> labels,
+      JsCompilerWarnings warnings,
+      boolean protoErrors,
+      boolean exportTestFunctions,
+      boolean disablePropertyRenaming) {
+    Compiler compiler = new Compiler();
+    JsCheckerErrorFormatter errorFormatter = new JsCheckerErrorFormatter(compiler, roots, labels);
+    errorFormatter.setColorize(true);
+    JsCheckerErrorManager errorManager = new JsCheckerErrorManager(errorFormatter);
+    errorManager.printDiagnostics = protoErrors;
+    compiler.setErrorManager(errorManager);
+    JsCompilerRunner runner =
+        new JsCompilerRunner(
+            args, compiler, exportTestFunctions, warnings, disablePropertyRenaming);
+    return new JsCompilerShards.Shard(runner, errorManager);
+  }
 }
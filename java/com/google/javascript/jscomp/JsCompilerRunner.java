@@ -16,9 +16,14 @@
 
 package com.google.javascript.jscomp;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
 import com.google.common.collect.Iterables;
 import com.google.javascript.jscomp.deps.ModuleLoader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 final class JsCompilerRunner extends CommandLineRunner {
 
@@ -26,6 +31,8 @@ final class JsCompilerRunner extends CommandLineRunner {
   private final boolean exportTestFunctions;
   private final WarningsGuard warnings;
   private final boolean disablePropertyRenaming;
+  private int shard;
+  private int shardCount = 1;
 
   JsCompilerRunner(
       Iterable<String> args,
@@ -50,6 +57,48 @@ final class JsCompilerRunner extends CommandLineRunner {
     }
   }
 
+  /**
+   * Makes this runner compile only the {@code index}th of {@code count} contiguous slices of the
+   * sources, which is only correct if no pass looks beyond the source it's transforming.
+   *
+   * @see JsCompilerShards
+   */
+  void setShard(int index, int count) {
+    checkArgument(0 <= index && index < count, "bad shard %s of %s", index, count);
+    shard = index;
+    shardCount = count;
+  }
+
+  @Override
+  protected List<SourceFile> createInputs(
+      List<FlagEntry<JsSourceType>> files,
+      List<JsonFileSpec> jsonFiles,
+      boolean allowStdIn,
+      List<JsModuleSpec> jsModuleSpecs)
+      throws IOException {
+    if (shardCount == 1) {
+      return super.createInputs(files, jsonFiles, allowStdIn, jsModuleSpecs);
+    }
+    // Externs go through this method too, so only the sources are sliced.
+    List<FlagEntry<JsSourceType>> sources = new ArrayList<>();
+    List<FlagEntry<JsSourceType>> others = new ArrayList<>();
+    for (FlagEntry<JsSourceType> file : files) {
+      if (file.getFlag() == JsSourceType.JS || file.getFlag() == JsSourceType.JS_ZIP) {
+        sources.add(file);
+      } else {
+        others.add(file);
+      }
+    }
+    if (!sources.isEmpty()) {
+      int begin = sources.size() * shard / shardCount;
+      int end = sources.size() * (shard + 1) / shardCount;
+      // An empty slice would make the compiler read stdin, which is the worker protocol.
+      checkState(begin < end, "%s shards for %s sources", shardCount, sources.size());
+      others.addAll(sources.subList(begin, end));
+    }
+    return super.createInputs(others, jsonFiles, allowStdIn, jsModuleSpecs);
+  }
+
   @Override
   protected Compiler createCompiler() {
     return compiler;
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.io.MoreFiles;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.debugging.sourcemap.FilePosition;
+import com.google.debugging.sourcemap.SourceMapConsumerV3;
+import com.google.debugging.sourcemap.SourceMapGeneratorV3;
+import com.google.debugging.sourcemap.SourceMapParseException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Runs a {@link JsCompiler} action as several independent compilations on a thread pool.
+ *
+ * <p>This is only done for {@code WHITESPACE_ONLY} builds with {@code --dependency_mode NONE},
+ * since those never look beyond the source being transformed and keep the sources in the order
+ * they were passed. Checks-only and optimized builds need the whole program for type checking and
+ * dependency sorting, so they can't be split this way. Neither can builds that transpile, since
+ * each shard would inject its own copy of the runtime libraries and number the names it generates
+ * from zero.
+ *
+ * <p>Each shard compiles a contiguous slice of the sources into a temporary file. The outputs are
+ * then concatenated in order, each starting on a new line, and the source maps are merged by
+ * offsetting their lines, so the result is the same as compiling with a single compiler and
+ * doesn't depend on which shard finishes first.
+ */
+final class JsCompilerShards {
+
+  // Flags that would make the output of a shard depend on the other shards.
+  private static final ImmutableSet<String> UNSHARDABLE_FLAGS =
+      ImmutableSet.of(
+          "--checks_only",
+          "--chunk",
+          "--entry_point",
+          "--force_inject_library",
+          "--isolation_mode",
+          "--json_streams",
+          "--module",
+          "--output_chunk_dependencies",
+          "--output_manifest",
+          "--output_module_dependencies",
+          "--output_wrapper",
+          "--output_wrapper_file",
+          "--property_renaming_report",
+          "--variable_renaming_report");
+
+  /** One of the independent compilations. */
+  static final class Shard {
+    final JsCompilerRunner runner;
+    final JsCheckerErrorManager errorManager;
+
+    Shard(JsCompilerRunner runner, JsCheckerErrorManager errorManager) {
+      this.runner = runner;
+      this.errorManager = errorManager;
+    }
+  }
+
+  private final ExecutorService executor;
+  private final int count;
+
+  JsCompilerShards(ExecutorService executor, int count) {
+    this.executor = executor;
+    this.count = count;
+  }
+
+  // Flags whose values decide whether a compilation can be split up.
+  private static final ImmutableSet<String> DECIDING_FLAGS =
+      ImmutableSet.of(
+          "--compilation_level", "--dependency_mode", "--language_in", "--language_out");
+
+  /** Returns {@code true} if a compilation with these compiler flags can be split up. */
+  static boolean isShardable(List<String> args) {
+    Map<String, String> values = new HashMap<>();
+    for (Iterator<String> iargs = args.iterator(); iargs.hasNext(); ) {
+      String arg = iargs.next();
+      String flag = arg.contains("=") ? arg.substring(0, arg.indexOf('=')) : arg;
+      if (UNSHARDABLE_FLAGS.contains(flag)) {
+        return false;
+      }
+      if (DECIDING_FLAGS.contains(flag)) {
+        if (arg.equals(flag)) {
+          values.put(flag, iargs.hasNext() ? iargs.next() : "");
+        } else {
+          values.put(flag, arg.substring(flag.length() + 1));
+        }
+      }
+    }
+    // The default --language_out may be lower than the input, so it has to be spelled out.
+    String languageOut = values.get("--language_out");
+    boolean transpiles =
+        !"NO_TRANSPILE".equals(languageOut)
+            && (languageOut == null || !languageOut.equals(values.get("--language_in")));
+    return "WHITESPACE_ONLY".equals(values.get("--compilation_level"))
+        && "NONE".equals(values.get("--dependency_mode"))
+        && !transpiles;
+  }
+
+  /**
+   * Returns how many sources the compiler will be given, or fewer.
+   *
+   * <p>These are the values of {@code --js} and {@code --jszip}, plus bare arguments. An argument
+   * following a flag without {@code =} is taken to be its value, even if the flag is boolean, so
+   * the count can be low but never high.
+   */
+  static int countSources(List<String> args) {
+    int sources = 0;
+    PeekingIterator<String> iargs = Iterators.peekingIterator(args.iterator());
+    while (iargs.hasNext()) {
+      String arg = iargs.next();
+      if (!isFlag(arg)) {
+        sources++;
+        continue;
+      }
+      String flag = arg.contains("=") ? arg.substring(0, arg.indexOf('=')) : arg;
+      if (arg.equals(flag)) {
+        if (!iargs.hasNext() || isFlag(iargs.peek())) {
+          continue;
+        }
+        iargs.next();
+      }
+      if (flag.equals("--js") || flag.equals("--jszip")) {
+        sources++;
+      }
+    }
+    return sources;
+  }
+
+  private static boolean isFlag(String arg) {
+    return arg.startsWith("-") && !arg.equals("-");
+  }
+
+  /**
+   * Compiles every shard and writes the merged output.
+   *
+   * @param args compiler flags, to which each shard's output paths are appended
+   * @param newShard creates a runner and error manager for the compiler flags it's given
+   * @param errorManager receives the diagnostics of every shard, in order
+   * @return {@code true} if any shard failed
+   */
+  boolean run(
+      List<String> args,
+      Path jsOutputFile,
+      @Nullable Path createSourceMap,
+      Function<List<String>, Shard> newShard,
+      JsCheckerErrorManager errorManager)
+      throws IOException {
+    Path tmp = Files.createTempDirectory("JsCompilerShards");
+    try {
+      // Set once any shard throws, so the ones that haven't started yet don't bother.
+      AtomicBoolean abort = new AtomicBoolean();
+      List<Future<Boolean>> futures = new ArrayList<>();
+      List<Shard> shards = new ArrayList<>();
+      Throwable error = null;
+      try {
+        for (int i = 0; i < count; i++) {
+          List<String> shardArgs = new ArrayList<>(args);
+          shardArgs.add("--js_output_file");
+          shardArgs.add(getOutput(tmp, i).toString());
+          if (createSourceMap != null) {
+            shardArgs.add("--create_source_map");
+            shardArgs.add(getSourceMap(tmp, i).toString());
+          }
+          Shard shard = newShard.apply(shardArgs);
+          shard.runner.setShard(i, count);
+          shards.add(shard);
+          futures.add(executor.submit(compile(shard, abort)));
+        }
+      } catch (RuntimeException e) {
+        abort.set(true);
+        error = e;
+      }
+      // Every shard is waited for, even after one throws, since the others are still writing to
+      // the temporary directory.
+      boolean failed = false;
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          failed |= Uninterruptibles.getUninterruptibly(futures.get(i));
+        } catch (ExecutionException e) {
+          if (error == null) {
+            error = e.getCause();
+          } else {
+            error.addSuppressed(e.getCause());
+          }
+          continue;
+        }
+        errorManager.addShard(shards.get(i).errorManager);
+      }
+      if (error != null) {
+        Throwables.propagateIfPossible(error, IOException.class);
+        throw new RuntimeException(error);
+      }
+      if (!failed) {
+        merge(tmp, jsOutputFile, createSourceMap);
+      }
+      return failed;
+    } finally {
+      MoreFiles.deleteRecursively(tmp);
+    }
+  }
+
+  private static Callable<Boolean> compile(final Shard shard, final AtomicBoolean abort) {
+    return () -> {
+      if (abort.get()) {
+        return true;
+      }
+      try {
+        boolean failed = false;
+        if (shard.runner.shouldRunCompiler()) {
+          failed |= shard.runner.go() != 0;
+        }
+        failed |= shard.runner.hasErrors();
+        return failed;
+      } catch (Throwable t) {
+        abort.set(true);
+        throw t;
+      }
+    };
+  }
+
+  private void merge(Path tmp, Path jsOutputFile, @Nullable Path createSourceMap)
+      throws IOException {
+    SourceMapGeneratorV3 generator = new SourceMapGeneratorV3();
+    int lines = 0;
+    try (Writer output = Files.newBufferedWriter(jsOutputFile, UTF_8)) {
+      for (int i = 0; i < count; i++) {
+        String code = new String(Files.readAllBytes(getOutput(tmp, i)), UTF_8);
+        if (!code.isEmpty() && !code.endsWith("\n")) {
+          code += "\n";
+        }
+        output.write(code);
+        if (createSourceMap != null) {
+          addSourceMap(generator, getSourceMap(tmp, i), lines);
+        }
+        for (int j = 0; j < code.length(); j++) {
+          if (code.charAt(j) == '\n') {
+            lines++;
+          }
+        }
+      }
+    }
+    if (createSourceMap != null) {
+      try (Writer output = Files.newBufferedWriter(createSourceMap, UTF_8)) {
+        generator.appendTo(output, jsOutputFile.getFileName().toString());
+      }
+    }
+  }
+
+  private static void addSourceMap(
+      final SourceMapGeneratorV3 generator, Path sourceMap, final int lineOffset)
+      throws IOException {
+    SourceMapConsumerV3 consumer = new SourceMapConsumerV3();
+    try {
+      consumer.parse(new String(Files.readAllBytes(sourceMap), UTF_8));
+    } catch (SourceMapParseException e) {
+      throw new IOException("Bad source map from shard: " + sourceMap, e);
+    }
+    consumer.visitMappings(
+        (sourceName, symbolName, sourceStartPosition, startPosition, endPosition) ->
+            generator.addMapping(
+                sourceName,
+                symbolName,
+                sourceStartPosition,
+                new FilePosition(startPosition.getLine() + lineOffset, startPosition.getColumn()),
+                new FilePosition(endPosition.getLine() + lineOffset, endPosition.getColumn())));
+    Iterator<String> contents = consumer.getOriginalSourcesContent().iterator();
+    for (String source : consumer.getOriginalSources()) {
+      String content = contents.hasNext() ? contents.next() : null;
+      if (content != null) {
+        generator.addSourcesContent(source, content);
+      }
+    }
+  }
+
+  private static Path getOutput(Path tmp, int shard) {
+    return tmp.resolve(shard + ".js");
+  }
+
+  private static Path getSourceMap(Path tmp, int shard) {
+    return tmp.resolve(shard + ".js.map");
+  }
+}
@@ -16,12 +16,16 @@
 
 package com.google.javascript.jscomp;
 
-import static com.google.javascript.jscomp.JsCheckerHelper.convertPathToModuleName;
 import static com.google.javascript.jscomp.JsCheckerHelper.isInSyntheticCode;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
-import java.util.List;
+import java.util.BitSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Compiler warnings configuration for {@link JsCompiler}.
@@ -29,16 +33,24 @@ import java.util.Set;
  * <p>This class determines which compiler passes should be enabled and whether or not the errors
  * they produce should be ignored or treated as warnings. By default we enable all checks and treat
  * them as errors, with certain exceptions. See {@link JsCompiler} for more information.
+ *
+ * <p>Large binaries can produce hundreds of thousands of candidate diagnostics, so the module and
+ * suppressions of each source file are resolved once, the first time it has a diagnostic, and
+ * cached as a bit set indexed by {@link DiagnosticType}.
  */
 final class JsCompilerWarnings extends WarningsGuard {
 
-  private final List<String> roots;
+  private static final Source UNKNOWN = new Source(false, new BitSet());
+
+  private final ModuleRoots roots;
   private final Set<String> legacyModules;
   private final Multimap<String, DiagnosticType> suppressions;
   private final Set<DiagnosticType> globalSuppressions;
+  private final ImmutableMap<DiagnosticType, Integer> typeIndex;
+  private final Map<String, Source> sources = new ConcurrentHashMap<>();
 
   JsCompilerWarnings(
-      List<String> roots,
+      ModuleRoots roots,
       Set<String> legacyModules,
       Multimap<String, DiagnosticType> suppressions,
       Set<DiagnosticType> globalSuppressions) {
@@ -46,6 +58,12 @@ final class JsCompilerWarnings extends WarningsGuard {
     this.legacyModules = legacyModules;
     this.suppressions = suppressions;
     this.globalSuppressions = globalSuppressions;
+    ImmutableMap.Builder<DiagnosticType, Integer> typeIndex = new ImmutableMap.Builder<>();
+    int index = 0;
+    for (DiagnosticType type : ImmutableSet.copyOf(suppressions.values())) {
+      typeIndex.put(type, index++);
+    }
+    this.typeIndex = typeIndex.build();
   }
 
   @Override
@@ -86,17 +104,19 @@ final class JsCompilerWarnings extends WarningsGuard {
       return CheckLevel.ERROR;
     }
 
-    for (String module : convertPathToModuleName(error.sourceName, roots).asSet()) {
-      if (legacyModules.contains(module)) {
-        // Ignore it entirely if it's very noisy.
-        if (Diagnostics.IGNORE_FOR_LEGACY.contains(error.getType())) {
-          return CheckLevel.OFF;
-        }
-        // Otherwise downgrade to a warning, since it's not easily actionable.
-        level = CheckLevel.WARNING;
-      } else if (suppressions.containsEntry(module, error.getType())) {
-        // If a closure_js_library() defined this source file, then check if that library rule
-        // defined a suppress code to make this error go away.
+    Source source = sources.computeIfAbsent(error.sourceName, this::resolve);
+    if (source.legacy) {
+      // Ignore it entirely if it's very noisy.
+      if (Diagnostics.IGNORE_FOR_LEGACY.contains(error.getType())) {
+        return CheckLevel.OFF;
+      }
+      // Otherwise downgrade to a warning, since it's not easily actionable.
+      level = CheckLevel.WARNING;
+    } else {
+      // If a closure_js_library() defined this source file, then check if that library rule
+      // defined a suppress code to make this error go away.
+      Integer index = typeIndex.get(error.getType());
+      if (index != null && source.suppressed.get(index)) {
         return CheckLevel.OFF;
       }
     }
@@ -110,4 +130,30 @@ final class JsCompilerWarnings extends WarningsGuard {
     // Otherwise we'll be cautious and just assume it's bad.
     return level;
   }
+
+  private Source resolve(String sourceName) {
+    Optional<String> module = roots.toModuleName(sourceName);
+    if (!module.isPresent()) {
+      return UNKNOWN;
+    }
+    if (legacyModules.contains(module.get())) {
+      return new Source(true, new BitSet());
+    }
+    BitSet suppressed = new BitSet(typeIndex.size());
+    for (DiagnosticType type : suppressions.get(module.get())) {
+      suppressed.set(typeIndex.get(type));
+    }
+    return new Source(false, suppressed);
+  }
+
+  /** Suppression settings for a source file, derived from the library that defined it. */
+  private static final class Source {
+    final boolean legacy;
+    final BitSet suppressed;
+
+    Source(boolean legacy, BitSet suppressed) {
+      this.legacy = legacy;
+      this.suppressed = suppressed;
+    }
+  }
 }
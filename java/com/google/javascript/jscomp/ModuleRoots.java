@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts Bazel source paths into ES6 module names by stripping {@code --js_module_root} prefixes.
+ *
+ * <p>For example, with the root {@code bazel-out/k8-fastbuild/bin}, the path {@code
+ * bazel-out/k8-fastbuild/bin/foo/bar.js} becomes {@code /foo/bar.js}. If several roots match, the
+ * one that was passed first wins.
+ *
+ * <p>Names are looked up for every source, provide and diagnostic, so the roots are compiled into
+ * a character trie that finds the matching root in one pass over the path, and results are
+ * memoized per path for the lifetime of this object, which is a single action.
+ */
+final class ModuleRoots {
+
+  private static final int NO_ROOT = Integer.MAX_VALUE;
+
+  private final ImmutableList<String> roots;
+  private final Node trie = new Node();
+  private final Map<String, Optional<String>> cache = new ConcurrentHashMap<>();
+
+  ModuleRoots(Iterable<String> roots) {
+    this.roots = ImmutableList.copyOf(roots);
+    for (int i = 0; i < this.roots.size(); i++) {
+      String prefix = this.roots.get(i) + "/";
+      Node node = trie;
+      for (int j = 0; j < prefix.length(); j++) {
+        node = node.getOrAddChild(prefix.charAt(j));
+      }
+      node.root = Math.min(node.root, i);
+    }
+  }
+
+  /** Returns roots in the order they were passed. */
+  ImmutableList<String> getRoots() {
+    return roots;
+  }
+
+  /** Returns module name of a JS or zip file, or absent if {@code path} is neither. */
+  Optional<String> toModuleName(String path) {
+    return cache.computeIfAbsent(path, this::resolve);
+  }
+
+  private Optional<String> resolve(String path) {
+    checkArgument(!path.startsWith("/"));
+    if (!path.endsWith(".js") && !path.endsWith(".zip")) {
+      return Optional.absent();
+    }
+    int best = NO_ROOT;
+    int start = 0;
+    Node node = trie;
+    for (int i = 0; i < path.length(); i++) {
+      node = node.getChild(path.charAt(i));
+      if (node == null) {
+        break;
+      }
+      if (node.root < best) {
+        best = node.root;
+        start = i + 1;
+      }
+    }
+    int end = path.indexOf('!', start);
+    return Optional.of("/" + path.substring(start, end == -1 ? path.length() : end));
+  }
+
+  @Override
+  public String toString() {
+    return roots.toString();
+  }
+
+  private static final class Node {
+    private char[] keys = new char[0];
+    private Node[] children = new Node[0];
+    int root = NO_ROOT;
+
+    Node getChild(char c) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] == c) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    Node getOrAddChild(char c) {
+      Node child = getChild(c);
+      if (child == null) {
+        child = new Node();
+        keys = Arrays.copyOf(keys, keys.length + 1);
+        children = Arrays.copyOf(children, children.length + 1);
+        keys[keys.length - 1] = c;
+        children[children.length - 1] = child;
+      }
+      return child;
+    }
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.primitives.UnsignedBytes;
+import java.io.ByteArrayOutputStream;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Immutable set of Closure namespaces, stored compactly.
+ *
+ * <p>Namespaces tend to share long prefixes, like {@code goog.ui.editor.}, so they're sorted by
+ * their UTF-8 bytes and front coded: each one is stored as the length of the prefix it shares with
+ * the one before it, followed by the rest of its bytes. Every {@value #BLOCK_SIZE}th namespace is
+ * stored in full, so a lookup binary searches those and then decodes at most one block.
+ *
+ * <p>The whole set is a single byte array, which is a fraction of the size of a hash set of
+ * strings, so a persistent worker can keep one around for every dep it's seen and share it between
+ * actions. Instances are safe to use from multiple threads.
+ */
+final class NamespaceSet {
+
+  static final NamespaceSet EMPTY = new NamespaceSet(new byte[0], new int[0], 0, 0);
+
+  private static final int BLOCK_SIZE = 16;
+
+  // Rough number of bytes retained by an instance, excluding its arrays.
+  private static final int OVERHEAD = 64;
+
+  private static final Comparator<byte[]> ORDER = UnsignedBytes.lexicographicalComparator();
+
+  private final byte[] data;
+  private final int[] blocks;
+  private final int size;
+  private final int maxLength;
+
+  private NamespaceSet(byte[] data, int[] blocks, int size, int maxLength) {
+    this.data = data;
+    this.blocks = blocks;
+    this.size = size;
+    this.maxLength = maxLength;
+  }
+
+  /** Returns a set of {@code namespaces}, without duplicates. */
+  static NamespaceSet copyOf(Iterable<String> namespaces) {
+    TreeSet<byte[]> sorted = new TreeSet<>(ORDER);
+    for (String namespace : namespaces) {
+      sorted.add(namespace.getBytes(UTF_8));
+    }
+    if (sorted.isEmpty()) {
+      return EMPTY;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int[] blocks = new int[(sorted.size() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+    byte[] previous = null;
+    int maxLength = 0;
+    int index = 0;
+    for (byte[] namespace : sorted) {
+      int shared = 0;
+      if (index % BLOCK_SIZE == 0) {
+        blocks[index / BLOCK_SIZE] = out.size();
+      } else {
+        shared = sharedPrefixLength(previous, namespace);
+        writeVarint(out, shared);
+      }
+      writeVarint(out, namespace.length - shared);
+      out.write(namespace, shared, namespace.length - shared);
+      maxLength = Math.max(maxLength, namespace.length);
+      previous = namespace;
+      index++;
+    }
+    return new NamespaceSet(out.toByteArray(), blocks, sorted.size(), maxLength);
+  }
+
+  boolean contains(String namespace) {
+    return contains(namespace.getBytes(UTF_8));
+  }
+
+  /**
+   * Returns {@code true} if the namespace whose UTF-8 bytes are {@code key} is in this set.
+   *
+   * <p>Callers probing many sets for the same namespace should encode it once and use this.
+   */
+  boolean contains(byte[] key) {
+    if (size == 0 || key.length > maxLength) {
+      return false;
+    }
+    // Find the last block whose first namespace isn't greater than the key.
+    int low = 0;
+    int high = blocks.length - 1;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      int length = readVarint(data, blocks[middle]);
+      int comparison = compare(data, blocks[middle] + varintSize(length), length, key);
+      if (comparison == 0) {
+        return true;
+      } else if (comparison < 0) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return scan(low, key);
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Returns approximate number of bytes retained by this set. */
+  int weigh() {
+    return OVERHEAD + data.length + 4 * blocks.length;
+  }
+
+  // Compares the key against each namespace of a block without decoding them. Every namespace
+  // before the current one is less than the key, and matched is how many leading bytes the
+  // previous one has in common with it.
+  private boolean scan(int block, byte[] key) {
+    int position = blocks[block];
+    int count = Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE);
+    int matched = 0;
+    for (int i = 0; i < count; i++) {
+      int shared = 0;
+      if (i > 0) {
+        shared = readVarint(data, position);
+        position += varintSize(shared);
+      }
+      int suffix = readVarint(data, position);
+      position += varintSize(suffix);
+      int start = position;
+      position += suffix;
+      if (shared > matched) {
+        // Same as the previous namespace where that one was less than the key.
+        continue;
+      }
+      if (shared < matched) {
+        // Greater than the previous namespace where that one still matched the key.
+        return false;
+      }
+      int limit = Math.min(suffix, key.length - matched);
+      int j = 0;
+      while (j < limit && data[start + j] == key[matched + j]) {
+        j++;
+      }
+      matched += j;
+      if (j < limit) {
+        if (UnsignedBytes.compare(data[start + j], key[matched]) > 0) {
+          return false;
+        }
+        continue;
+      }
+      int length = shared + suffix;
+      if (length == key.length) {
+        return true;
+      } else if (length > key.length) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private static int compare(byte[] bytes, int offset, int length, byte[] key) {
+    int limit = Math.min(length, key.length);
+    for (int i = 0; i < limit; i++) {
+      int comparison = UnsignedBytes.compare(bytes[offset + i], key[i]);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return length - key.length;
+  }
+
+  private static int sharedPrefixLength(byte[] a, byte[] b) {
+    int limit = Math.min(a.length, b.length);
+    int i = 0;
+    while (i < limit && a[i] == b[i]) {
+      i++;
+    }
+    return i;
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  private static int readVarint(byte[] data, int position) {
+    int result = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = data[position++];
+      result |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        return result;
+      }
+    }
+  }
+
+  // Returns number of bytes writeVarint() uses for value.
+  private static int varintSize(int value) {
+    int size = 1;
+    while ((value & ~0x7f) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableList;
+import com.google.javascript.jscomp.parsing.parser.trees.Comment;
+import com.google.javascript.rhino.ErrorReporter;
+import com.google.javascript.rhino.InputId;
+import com.google.javascript.rhino.Node;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * JavaScript source file that was parsed once and can be handed to many compilations.
+ *
+ * <p>Compiler passes mutate the AST, so each {@link SourceAst} returned by {@link #newAst()} gives
+ * its compiler a deep copy of the pristine tree. The messages and comments the parser produced are
+ * replayed into that compiler as well, so the result is indistinguishable from parsing the file
+ * again.
+ */
+final class ParsedSource {
+
+  private final SourceFile sourceFile;
+  private final Node root;
+  private final ImmutableList<ParserMessage> messages;
+  private final ImmutableList<Comment> comments;
+
+  private ParsedSource(
+      SourceFile sourceFile,
+      Node root,
+      ImmutableList<ParserMessage> messages,
+      ImmutableList<Comment> comments) {
+    this.sourceFile = sourceFile;
+    this.root = root;
+    this.messages = messages;
+    this.comments = comments;
+  }
+
+  /**
+   * Parses {@code sourceFile} the same way a compiler configured with {@code options} would.
+   *
+   * @throws IOException if the file couldn't be read, in which case it should be passed to the
+   *     compiler unparsed, so it can report the error
+   */
+  static ParsedSource parse(SourceFile sourceFile, CompilerOptions options) throws IOException {
+    sourceFile.getCode();
+    final List<ParserMessage> messages = new ArrayList<>();
+    final ErrorReporter recorder =
+        new ErrorReporter() {
+          @Override
+          public void warning(String message, String sourceName, int line, int lineOffset) {
+            messages.add(new ParserMessage(false, message, sourceName, line, lineOffset));
+          }
+
+          @Override
+          public void error(String message, String sourceName, int line, int lineOffset) {
+            messages.add(new ParserMessage(true, message, sourceName, line, lineOffset));
+          }
+        };
+    Compiler compiler =
+        new Compiler() {
+          @Override
+          public ErrorReporter getDefaultErrorReporter() {
+            return recorder;
+          }
+        };
+    compiler.setErrorManager(
+        new BasicErrorManager() {
+          @Override
+          public void println(CheckLevel level, JSError error) {}
+
+          @Override
+          public void printSummary() {}
+        });
+    compiler.initOptions(options);
+    Node root = new JsAst(sourceFile).getAstRoot(compiler);
+    List<Comment> comments = compiler.getComments(sourceFile.getName());
+    return new ParsedSource(
+        sourceFile,
+        root,
+        ImmutableList.copyOf(messages),
+        comments == null ? ImmutableList.<Comment>of() : ImmutableList.copyOf(comments));
+  }
+
+  /** Returns the number of characters in the source file, for sizing caches. */
+  int length() {
+    try {
+      return sourceFile.getCode().length();
+    } catch (IOException e) {
+      throw new AssertionError("code was read by parse()", e);
+    }
+  }
+
+  /** Returns the pristine tree, which is shared, so it must not be modified. */
+  Node getRoot() {
+    return root;
+  }
+
+  /** Returns a new AST for a single compilation. */
+  SourceAst newAst() {
+    return new Ast();
+  }
+
+  private final class Ast implements SourceAst {
+    private final InputId inputId = new InputId(sourceFile.getName());
+    private SourceFile file = sourceFile;
+    private Node copy;
+    // Parses the replacement given to setSourceFile(), since the pristine tree is of the original.
+    @Nullable private JsAst replacement;
+
+    @Override
+    public Node getAstRoot(AbstractCompiler compiler) {
+      if (replacement != null) {
+        return replacement.getAstRoot(compiler);
+      }
+      if (copy == null) {
+        copy = root.cloneTree(true);
+        ErrorReporter reporter = compiler.getDefaultErrorReporter();
+        for (ParserMessage message : messages) {
+          message.replay(reporter);
+        }
+        if (!comments.isEmpty()) {
+          compiler.addComments(sourceFile.getName(), comments);
+        }
+      }
+      return copy;
+    }
+
+    @Override
+    public void clearAst() {
+      copy = null;
+      if (replacement != null) {
+        replacement.clearAst();
+      }
+    }
+
+    @Override
+    public InputId getInputId() {
+      return inputId;
+    }
+
+    @Override
+    public SourceFile getSourceFile() {
+      return file;
+    }
+
+    @Override
+    public void setSourceFile(SourceFile file) {
+      checkState(sourceFile.getName().equals(file.getName()));
+      this.file = file;
+      copy = null;
+      replacement = new JsAst(file);
+    }
+  }
+
+  private static final class ParserMessage {
+    final boolean isError;
+    final String message;
+    final String sourceName;
+    final int line;
+    final int lineOffset;
+
+    ParserMessage(boolean isError, String message, String sourceName, int line, int lineOffset) {
+      this.isError = isError;
+      this.message = message;
+      this.sourceName = sourceName;
+      this.line = line;
+      this.lineOffset = lineOffset;
+    }
+
+    void replay(ErrorReporter reporter) {
+      if (isError) {
+        reporter.error(message, sourceName, line, lineOffset);
+      } else {
+        reporter.warning(message, sourceName, line, lineOffset);
+      }
+    }
+  }
+}
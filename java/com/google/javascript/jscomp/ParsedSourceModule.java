@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import dagger.Module;
+import dagger.Provides;
+import io.bazel.rules.closure.worker.InputCache;
+import io.bazel.rules.closure.worker.MemoryGovernor;
+import java.io.IOException;
+import javax.inject.Singleton;
+
+/**
+ * Dagger module for caching the ASTs of {@link JsChecker} sources between worker actions.
+ *
+ * <p>Transitive sources are checked by many library actions, so a persistent worker parses each
+ * of them once per digest Bazel gives us, and hands every compilation a copy of the tree.
+ */
+@Module
+public abstract class ParsedSourceModule {
+
+  // Upper bound on the estimated number of bytes retained by cached ASTs.
+  private static final long MAX_CACHE_WEIGHT = 256L * 1024 * 1024;
+
+  // The trees are roughly an order of magnitude larger than the UTF-16 text they were parsed from.
+  private static final int BYTES_PER_CHAR = 16;
+
+  @Provides
+  @Singleton
+  static LoadingCache<InputCache.Key, ParsedSource> provideParsedSourceCache(
+      MemoryGovernor governor) {
+    return governor.newCache(
+        "ParsedSource",
+        MAX_CACHE_WEIGHT,
+        (InputCache.Key key, ParsedSource source) -> BYTES_PER_CHAR * source.length(),
+        new CacheLoader<InputCache.Key, ParsedSource>() {
+          @Override
+          public ParsedSource load(InputCache.Key key) throws IOException {
+            return ParsedSource.parse(
+                SourceFile.fromFile(key.path().toString()), JsChecker.createOptions());
+          }
+        });
+  }
+
+  ParsedSourceModule() {}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.javascript.rhino.Node;
+import java.io.IOException;
+
+/**
+ * Closure namespaces declared by a JavaScript file.
+ *
+ * <p>This is all {@link JsChecker} needs to know about a {@code --mystery_src}. Libraries whose
+ * position in the graph is uncertain tend to pass the same large set of mystery sources, so a
+ * persistent worker keeps this summary for each digest Bazel gives us, instead of compiling those
+ * files over and over again.
+ */
+final class SourceProvides {
+
+  /** Namespaces in the form of {@link JsCheckerHelper#normalizeClosureNamespace}. */
+  final ImmutableSet<String> namespaces;
+
+  private SourceProvides(ImmutableSet<String> namespaces) {
+    this.namespaces = namespaces;
+  }
+
+  /**
+   * Parses {@code sourceFile} and finds its namespace declarations.
+   *
+   * <p>Like {@link CheckStrictDeps.FirstPass}, this looks everywhere except inside functions.
+   *
+   * @throws IOException if the file couldn't be read
+   */
+  static SourceProvides parse(SourceFile sourceFile) throws IOException {
+    ParsedSource parsed = ParsedSource.parse(sourceFile, JsChecker.createOptions());
+    ImmutableSet.Builder<String> namespaces = ImmutableSet.builder();
+    scan(parsed.getRoot(), namespaces);
+    return new SourceProvides(namespaces.build());
+  }
+
+  /** Returns the number of characters retained, for sizing caches. */
+  int length() {
+    int result = 0;
+    for (String namespace : namespaces) {
+      result += namespace.length();
+    }
+    return result;
+  }
+
+  private static void scan(Node n, ImmutableSet.Builder<String> namespaces) {
+    if (CheckStrictDeps.isNamespaceDeclaration(n)) {
+      namespaces.add(JsCheckerHelper.normalizeClosureNamespace(n.getLastChild().getString()));
+    }
+    if (n.isFunction()) {
+      return;
+    }
+    for (Node child = n.getFirstChild(); child != null; child = child.getNext()) {
+      scan(child, namespaces);
+    }
+  }
+}
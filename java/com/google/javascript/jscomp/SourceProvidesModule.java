@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import dagger.Module;
+import dagger.Provides;
+import io.bazel.rules.closure.worker.InputCache;
+import io.bazel.rules.closure.worker.MemoryGovernor;
+import java.io.IOException;
+import javax.inject.Singleton;
+
+/**
+ * Dagger module for indexing what {@link JsChecker} mystery sources provide between worker actions.
+ */
+@Module
+public abstract class SourceProvidesModule {
+
+  // Upper bound on the estimated number of bytes retained by the index.
+  private static final long MAX_CACHE_WEIGHT = 16L * 1024 * 1024;
+
+  // Rough number of bytes retained by an entry and its key, excluding strings.
+  private static final int ENTRY_OVERHEAD = 256;
+
+  @Provides
+  @Singleton
+  static LoadingCache<InputCache.Key, SourceProvides> provideSourceProvidesCache(
+      MemoryGovernor governor) {
+    return governor.newCache(
+        "SourceProvides",
+        MAX_CACHE_WEIGHT,
+        (InputCache.Key key, SourceProvides provides) -> ENTRY_OVERHEAD + 2 * provides.length(),
+        new CacheLoader<InputCache.Key, SourceProvides>() {
+          @Override
+          public SourceProvides load(InputCache.Key key) throws IOException {
+            return SourceProvides.parse(SourceFile.fromFile(key.path().toString()));
+          }
+        });
+  }
+
+  SourceProvidesModule() {}
+}
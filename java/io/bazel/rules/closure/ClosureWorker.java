@@ -17,8 +17,13 @@
 package io.bazel.rules.closure;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.javascript.jscomp.ClosureJsLibraryModule;
 import com.google.javascript.jscomp.JsChecker;
+import com.google.javascript.jscomp.JsCheckerMemoModule;
 import com.google.javascript.jscomp.JsCompiler;
+import com.google.javascript.jscomp.ParsedSourceModule;
+import com.google.javascript.jscomp.SourceProvidesModule;
 import dagger.BindsInstance;
 import dagger.Component;
 import dagger.Subcomponent;
@@ -27,6 +32,7 @@ import io.bazel.rules.closure.worker.ActionComponent;
 import io.bazel.rules.closure.worker.ActionModule;
 import io.bazel.rules.closure.worker.Annotations.Action;
 import io.bazel.rules.closure.worker.LegacyAspect;
+import io.bazel.rules.closure.worker.Metrics;
 import io.bazel.rules.closure.worker.PersistentWorker;
 import io.bazel.rules.closure.worker.Prefixes;
 import io.bazel.rules.closure.worker.Program;
@@ -36,6 +42,8 @@ import java.io.PrintStream;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -47,22 +55,26 @@ public final class ClosureWorker implements Program {
   private final PrintStream output;
   private final AtomicBoolean failed;
   private final List<String> arguments;
+  private final Metrics metrics;
 
   @Inject
   ClosureWorker(
       Invocation action,
       @Action PrintStream output,
       @Action AtomicBoolean failed,
-      @Action List<String> arguments) {
+      @Action List<String> arguments,
+      @Action Metrics metrics) {
     this.action = action;
     this.failed = failed;
     this.output = output;
     this.arguments = arguments;
+    this.metrics = metrics;
   }
 
   @Override
   public void run() throws Exception {
     String head = arguments.remove(0);
+    metrics.tag("program", head);
     // TODO(jart): Include Closure Templates and Stylesheets.
     switch (head) {
       case "JsChecker":
@@ -81,12 +93,19 @@ public final class ClosureWorker implements Program {
   }
 
   @Singleton
-  @Component
+  @Component(
+      modules = {
+        ClosureJsLibraryModule.class,
+        JsCheckerMemoModule.class,
+        ParsedSourceModule.class,
+        SourceProvidesModule.class
+      })
   interface Server extends WorkerComponent<ClosureWorker, Invocation, Invocation.Builder> {
     PersistentWorker<Server> worker();
 
     @Component.Builder
     interface Builder {
+      @BindsInstance Builder executor(ExecutorService executor);
       @BindsInstance Builder fs(FileSystem fs);
       Server build();
     }
@@ -103,11 +122,23 @@ public final class ClosureWorker implements Program {
   }
 
   public static void main(String[] args) throws IOException {
-    System.exit(
-        DaggerClosureWorker_Server.builder()
-            .fs(FileSystems.getDefault())
-            .build()
-            .worker()
-            .run(ImmutableList.copyOf(args)));
+    // Shared by all actions in this process for work they're able to split up, e.g. parsing.
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("ClosureWorker-%d").setDaemon(true).build());
+    int exitCode;
+    try {
+      exitCode =
+          DaggerClosureWorker_Server.builder()
+              .executor(executor)
+              .fs(FileSystems.getDefault())
+              .build()
+              .worker()
+              .run(ImmutableList.copyOf(args));
+    } finally {
+      executor.shutdownNow();
+    }
+    System.exit(exitCode);
   }
 }
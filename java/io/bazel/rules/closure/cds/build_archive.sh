@@ -0,0 +1,71 @@
+#!/bin/bash
+#
+# Copyright 2016 The Closure Rules Authors. All rights reserved.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Builds a class data sharing archive for ClosureWorker.
+#
+# Usage: build_archive.sh WORKER ARCHIVE SRC...
+#
+# WORKER is a ClosureWorker launcher. It's run once as JsChecker on the SRCs
+# and once as JsCompiler on the result, with the JVM recording every class it
+# loads. The union of those classes is then dumped into ARCHIVE.
+
+set -euo pipefail
+
+WORKER="$1"
+ARCHIVE="$2"
+shift 2
+
+TMP="$(mktemp -d "${TMPDIR:-/tmp}/closure_cds.XXXXXXXXXX")"
+trap 'rm -rf "${TMP}"' EXIT
+
+SRCS=()
+for src in "$@"; do
+  SRCS+=(--src "${src}")
+done
+
+# Diagnostics don't matter here, only the classes it takes to produce them, so
+# exit codes are ignored.
+"${WORKER}" \
+  --jvm_flag=-Xshare:off \
+  --jvm_flag=-XX:DumpLoadedClassList="${TMP}/checker.classlist" \
+  JsChecker \
+  --label //java/io/bazel/rules/closure/cds:training \
+  --convention CLOSURE \
+  --output "${TMP}/training.pbtxt" \
+  --output_errors "${TMP}/checker.txt" \
+  --output_ijs_file "${TMP}/training.i.js" \
+  "${SRCS[@]}" >/dev/null 2>&1 || true
+
+"${WORKER}" \
+  --jvm_flag=-Xshare:off \
+  --jvm_flag=-XX:DumpLoadedClassList="${TMP}/compiler.classlist" \
+  JsCompiler \
+  --info "${TMP}/training.pbtxt" \
+  --js_output_file "${TMP}/training.js" \
+  --create_source_map "${TMP}/training.js.map" \
+  --output_errors "${TMP}/compiler.txt" \
+  --compilation_level ADVANCED \
+  --dependency_mode PRUNE_LEGACY \
+  --entry_point goog:io.bazel.rules.closure.cds.training \
+  "$@" >/dev/null 2>&1 || true
+
+cat "${TMP}"/*.classlist | sort -u >"${TMP}/classlist"
+
+"${WORKER}" \
+  --jvm_flag=-Xshare:dump \
+  --jvm_flag=-XX:SharedClassListFile="${TMP}/classlist" \
+  --jvm_flag=-XX:SharedArchiveFile="${ARCHIVE}" \
+  >/dev/null
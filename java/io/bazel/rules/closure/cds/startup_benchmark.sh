@@ -0,0 +1,58 @@
+#!/bin/bash
+#
+# Copyright 2016 The Closure Rules Authors. All rights reserved.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Measures how long ClosureWorker takes to check a file from a cold start,
+# with and without the class data sharing archive.
+#
+# Usage: [RUNS=n] startup_benchmark.sh WORKER ARCHIVE SRC...
+
+set -euo pipefail
+
+WORKER="$1"
+ARCHIVE="$2"
+shift 2
+RUNS="${RUNS:-10}"
+
+TMP="$(mktemp -d "${TMPDIR:-/tmp}/closure_cds.XXXXXXXXXX")"
+trap 'rm -rf "${TMP}"' EXIT
+
+SRCS=()
+for src in "$@"; do
+  SRCS+=(--src "${src}")
+done
+
+# Prints mean wall time in milliseconds of RUNS cold JsChecker invocations.
+measure() {
+  local start
+  local end
+  start="$(date +%s%N)"
+  for ((i = 0; i < RUNS; i++)); do
+    "${WORKER}" "$@" \
+      JsChecker \
+      --label //java/io/bazel/rules/closure/cds:training \
+      --convention CLOSURE \
+      --output "${TMP}/training.pbtxt" \
+      --output_errors "${TMP}/errors.txt" \
+      --output_ijs_file "${TMP}/training.i.js" \
+      "${SRCS[@]}" >/dev/null 2>&1 || true
+  done
+  end="$(date +%s%N)"
+  echo $(((end - start) / RUNS / 1000000))
+}
+
+echo "cold JsChecker startup, mean of ${RUNS} runs"
+echo "  without archive: $(measure --jvm_flag=-Xshare:off) ms"
+echo "  with archive:    $(measure --jvm_flag=-XX:SharedArchiveFile="${ARCHIVE}" --jvm_flag=-Xshare:on) ms"
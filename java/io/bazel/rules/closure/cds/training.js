@@ -0,0 +1,48 @@
+// Copyright 2016 The Closure Rules Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+/**
+ * @fileoverview Training input for the ClosureWorker class data archive.
+ *
+ * This exercises the parser, JSDoc, type checking and ES6 transpilation, so
+ * the classes those passes need end up in the archive.
+ */
+
+goog.module('io.bazel.rules.closure.cds.training');
+
+/** @record */
+class Point {
+  constructor() {
+    /** @type {number} */
+    this.x;
+    /** @type {number} */
+    this.y;
+  }
+}
+
+/**
+ * @param {!Array<!Point>} points
+ * @return {number}
+ */
+function perimeter(points) {
+  let total = 0;
+  for (let i = 0; i < points.length; i++) {
+    const {x, y} = points[i];
+    const next = points[(i + 1) % points.length];
+    total += Math.hypot(next.x - x, next.y - y);
+  }
+  return total;
+}
+
+exports = {Point, perimeter};
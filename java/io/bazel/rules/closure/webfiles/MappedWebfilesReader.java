@@ -0,0 +1,283 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.webfiles;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Verify.verify;
+
+import com.google.common.base.VerifyException;
+import com.google.common.collect.ImmutableMap;
+import io.bazel.rules.closure.webfiles.BuildInfo.WebfileInfo;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
+
+/**
+ * Utility for reading zip files containing web files, from any number of threads at once.
+ *
+ * <p>The archive is memory mapped once and its central directory is parsed up front, so opening a
+ * web file is a map lookup. Unlike {@link WebfilesReader}, any number of web files can be open at
+ * the same time, on any thread, since each one gets its own view of the mapping.
+ *
+ * <p>Files that were stored without compression, like images and fonts, can be obtained as a
+ * {@link ByteBuffer} pointing straight into the mapping, so their bytes are never copied onto the
+ * heap.
+ *
+ * <p>There's nothing to close. The mapping is released once this object and every buffer it
+ * returned have been garbage collected. File systems that can't map files, like Jimfs, have the
+ * archive read into memory instead.
+ */
+public final class MappedWebfilesReader {
+
+  private final ByteBuffer zip;
+  private final ImmutableMap<String, Entry> entries;
+
+  private MappedWebfilesReader(ByteBuffer zip, ImmutableMap<String, Entry> entries) {
+    this.zip = zip;
+    this.entries = entries;
+  }
+
+  /**
+   * Maps zip archive into memory and indexes its central directory.
+   *
+   * @throws ZipException if the archive was corrupt or uses zip64
+   * @throws IOException if i/o badness happened
+   */
+  public static MappedWebfilesReader open(Path path) throws IOException {
+    ByteBuffer zip;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      zip = map(channel);
+    }
+    ImmutableMap.Builder<String, Entry> entries = ImmutableMap.builder();
+    for (ZipRecord record : ZipRecord.readCentralDirectory(zip)) {
+      entries.put(record.name, new Entry(record, (int) record.getDataOffset(zip)));
+    }
+    return new MappedWebfilesReader(zip, entries.build());
+  }
+
+  /** Returns {@code true} if {@code webfile} is in the archive without compression. */
+  public boolean isStored(WebfileInfo webfile) {
+    return getEntry(webfile).record.method == ZipEntry.STORED;
+  }
+
+  /**
+   * Returns contents of {@code webfile} without copying them, if they aren't compressed.
+   *
+   * <p>The result is a read only view of the archive, which can be used independently of any other
+   * buffer returned by this method. Its CRC isn't checked, since that would mean reading it.
+   *
+   * @throws IllegalArgumentException if {@code webfile} isn't in the zip or was compressed
+   * @throws VerifyException if index provided by {@code webfile} pointed to an unrelated file
+   */
+  public ByteBuffer getStoredWebfile(WebfileInfo webfile) {
+    Entry entry = getEntry(webfile);
+    checkArgument(
+        entry.record.method == ZipEntry.STORED, "%s is compressed", webfile.getWebpath());
+    return entry.getData(zip, 0).asReadOnlyBuffer();
+  }
+
+  /**
+   * Reads {@code webfile} from the archive, decompressing it if necessary.
+   *
+   * <p>This method is thread safe, and the returned value doesn't have to be closed before it's
+   * called again. The CRC is checked once the stream has been read to the end.
+   *
+   * @param webfile information about stored webfile
+   * @return unbuffered stream of file within zip
+   * @throws VerifyException if index provided by {@code webfile} pointed to an unrelated file
+   * @throws IllegalArgumentException if {@code webfile} has an illegal name or isn't in the zip
+   */
+  @CheckReturnValue
+  public InputStream openWebfile(WebfileInfo webfile) {
+    Entry entry = getEntry(webfile);
+    if (entry.record.method == ZipEntry.STORED) {
+      return new EntryInputStream(new ByteBufferInputStream(entry.getData(zip, 0)), null, entry);
+    }
+    // The inflater may want one byte past the end of the data when it doesn't wrap zlib headers.
+    // There's always at least a central directory after it, so the byte is there.
+    Inflater inflater = new Inflater(true);
+    return new EntryInputStream(
+        new InflaterInputStream(
+            new ByteBufferInputStream(entry.getData(zip, 1)), inflater, WebfilesUtils.BUFFER_SIZE),
+        inflater,
+        entry);
+  }
+
+  /** Returns central directory record of {@code webfile}. */
+  ZipRecord getRecord(WebfileInfo webfile) {
+    return getEntry(webfile).record;
+  }
+
+  /** Returns local header, data and data descriptor of {@code webfile}, exactly as stored. */
+  ByteBuffer getRawEntry(WebfileInfo webfile) throws ZipException {
+    ZipRecord record = getEntry(webfile).record;
+    int start = (int) record.offset;
+    return ZipRecord.slice(zip, start, (int) record.getEndOffset(zip) - start)
+        .asReadOnlyBuffer();
+  }
+
+  private Entry getEntry(WebfileInfo webfile) {
+    checkArgument(webfile.getInZip(), "Webfile says it's not stored in izip: %s", webfile);
+    String name = WebfilesUtils.getZipEntryName(webfile);
+    Entry entry = entries.get(name);
+    checkArgument(entry != null, "%s not found in zip", name);
+    verify(
+        entry.record.offset == webfile.getOffset(),
+        "Found %s in zip at offset %s but expected %s",
+        name,
+        entry.record.offset,
+        webfile.getOffset());
+    return entry;
+  }
+
+  private static ByteBuffer map(FileChannel channel) throws IOException {
+    long size = channel.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new ZipException("zip is too large to map: " + size);
+    }
+    try {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } catch (UnsupportedOperationException e) {
+      ByteBuffer result = ByteBuffer.allocate((int) size);
+      while (result.hasRemaining()) {
+        if (channel.read(result) == -1) {
+          throw new ZipException("zip was truncated while reading it");
+        }
+      }
+      result.flip();
+      return result;
+    }
+  }
+
+  private static final class Entry {
+    final ZipRecord record;
+    final int dataOffset;
+
+    Entry(ZipRecord record, int dataOffset) {
+      this.record = record;
+      this.dataOffset = dataOffset;
+    }
+
+    ByteBuffer getData(ByteBuffer zip, int padding) {
+      int length = (int) record.compressedSize;
+      return ZipRecord.slice(
+          zip, dataOffset, Math.min(length + padding, zip.limit() - dataOffset));
+    }
+  }
+
+  /** Stream of a single file that checks its size and CRC once it's been read. */
+  private static final class EntryInputStream extends FilterInputStream {
+    @Nullable private final Inflater inflater;
+    private final ZipRecord record;
+    private final CRC32 crc = new CRC32();
+    private long count;
+
+    EntryInputStream(InputStream input, @Nullable Inflater inflater, Entry entry) {
+      super(input);
+      this.inflater = inflater;
+      this.record = entry.record;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int amount = in.read(buffer, offset, length);
+      if (amount > 0) {
+        crc.update(buffer, offset, amount);
+        count += amount;
+      } else if (amount == -1) {
+        if (count != record.size) {
+          throw new ZipException(
+              String.format(
+                  "invalid entry size (expected %d but got %d bytes)", record.size, count));
+        }
+        if (crc.getValue() != record.crc) {
+          throw new ZipException(
+              String.format(
+                  "invalid entry CRC (expected 0x%x but got 0x%x)", record.crc, crc.getValue()));
+        }
+      }
+      return amount;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // Skipped bytes still need to be hashed.
+      byte[] buffer = new byte[(int) Math.min(n, WebfilesUtils.BUFFER_SIZE)];
+      int amount = read(buffer, 0, buffer.length);
+      return Math.max(amount, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (inflater != null) {
+        inflater.end();
+      }
+      super.close();
+    }
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int amount = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, amount);
+      return amount;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
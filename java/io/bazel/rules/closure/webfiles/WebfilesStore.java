@@ -0,0 +1,123 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.webfiles;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * Directory of compressed web files, keyed by the digest of their contents.
+ *
+ * <p>The same assets are often vendored by many web libraries, e.g. an icon font. When a
+ * {@link WebfilesWriter} is given a store, each distinct file only has to be deflated once per
+ * compression level. Every other archive containing it reuses the compressed bytes, and its
+ * manifest has the same digest.
+ *
+ * <p>Entries are written to a temporary file and then moved into place, so writers in different
+ * threads or processes can share a directory. Nothing is ever deleted from it, so it should live
+ * somewhere that gets cleaned up, e.g. a temporary directory or the Bazel output base. Since
+ * entries are only as deterministic as the zlib that created them, a store shouldn't be shared
+ * between machines.
+ */
+public final class WebfilesStore {
+
+  private static final String EXTENSION = ".deflate";
+
+  // Each entry starts with the CRC-32 and size of the uncompressed data, which are checked before
+  // it's used, so a wrong or truncated file can't end up in an archive.
+  private static final int HEADER_SIZE = 16;
+
+  private final Path directory;
+
+  private WebfilesStore(Path directory) {
+    this.directory = directory;
+  }
+
+  /** Returns store of compressed web files in {@code directory}, which is created if needed. */
+  public static WebfilesStore open(Path directory) throws IOException {
+    Files.createDirectories(checkNotNull(directory, "directory"));
+    return new WebfilesStore(directory);
+  }
+
+  /**
+   * Returns raw DEFLATE data for a file, if it was compressed before.
+   *
+   * @param digest SHA-256 of the uncompressed data
+   * @param level {@link java.util.zip.Deflater} compression level
+   * @param crc CRC-32 of the uncompressed data
+   * @param size number of bytes of uncompressed data
+   */
+  @Nullable
+  byte[] get(HashCode digest, int level, long crc, long size) throws IOException {
+    byte[] entry;
+    try {
+      entry = Files.readAllBytes(getPath(digest, level));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    if (entry.length < HEADER_SIZE) {
+      return null;
+    }
+    ByteBuffer header = ByteBuffer.wrap(entry, 0, HEADER_SIZE);
+    if (header.getLong() != crc || header.getLong() != size) {
+      return null;
+    }
+    return Arrays.copyOfRange(entry, HEADER_SIZE, entry.length);
+  }
+
+  /**
+   * Saves raw DEFLATE data for a file, so the next archive that has it doesn't compress it again.
+   *
+   * <p>This is called when {@link #get} found nothing usable, so an existing entry is replaced.
+   *
+   * @see #get(HashCode, int, long, long)
+   */
+  void put(HashCode digest, int level, long crc, long size, byte[] data) throws IOException {
+    Path path = getPath(digest, level);
+    Files.createDirectories(path.getParent());
+    Path temp = Files.createTempFile(path.getParent(), digest.toString(), ".tmp");
+    try {
+      try (OutputStream output = Files.newOutputStream(temp)) {
+        output.write(ByteBuffer.allocate(HEADER_SIZE).putLong(crc).putLong(size).array());
+        output.write(data);
+      }
+      try {
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException | FileAlreadyExistsException e) {
+        // Some file systems can't replace a file atomically. Maybe another writer beat us to it.
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private Path getPath(HashCode digest, int level) {
+    String hex = digest.toString();
+    // Shards entries, so no directory gets too big.
+    return directory.resolve(hex.substring(0, 2)).resolve(hex + "-" + level + EXTENSION);
+  }
+}
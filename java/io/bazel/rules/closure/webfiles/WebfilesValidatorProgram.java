@@ -28,6 +28,7 @@ import com.google.protobuf.TextFormat;
 import io.bazel.rules.closure.webfiles.BuildInfo.Webfiles;
 import io.bazel.rules.closure.worker.Annotations.Action;
 import io.bazel.rules.closure.worker.CommandLineProgram;
+import io.bazel.rules.closure.worker.Metrics;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.FileSystem;
@@ -62,12 +63,18 @@ public final class WebfilesValidatorProgram implements CommandLineProgram {
   private final PrintStream output;
   private final FileSystem fs;
   private final WebfilesValidator validator;
+  private final Metrics metrics;
 
   @Inject
-  WebfilesValidatorProgram(@Action PrintStream output, FileSystem fs, WebfilesValidator validator) {
+  WebfilesValidatorProgram(
+      @Action PrintStream output,
+      FileSystem fs,
+      WebfilesValidator validator,
+      @Action Metrics metrics) {
     this.output = output;
     this.fs = fs;
     this.validator = validator;
+    this.metrics = metrics;
   }
 
   @Override
@@ -92,10 +99,14 @@ public final class WebfilesValidatorProgram implements CommandLineProgram {
           Files.write(fs.getPath(flags.next()), new byte[0]);
           break;
         case "--target":
-          target = loadWebfilesPbtxt(fs.getPath(flags.next()));
+          try (Metrics.Timer timer = metrics.time("deps")) {
+            target = loadWebfilesPbtxt(fs.getPath(flags.next()));
+          }
           break;
         case "--direct_dep":
-          directDeps.add(loadWebfilesPbtxt(fs.getPath(flags.next())));
+          try (Metrics.Timer timer = metrics.time("deps")) {
+            directDeps.add(loadWebfilesPbtxt(fs.getPath(flags.next())));
+          }
           break;
         case "--transitive_dep":
           transitiveDeps.add(fs.getPath(flags.next()));
@@ -111,25 +122,30 @@ public final class WebfilesValidatorProgram implements CommandLineProgram {
       output.println(ERROR_PREFIX + "Missing --target flag");
       return 1;
     }
-    Multimap<String, String> errors =
-        validator.validate(
-            target,
-            directDeps,
-            Suppliers.memoize(
-                new Supplier<ImmutableList<Webfiles>>() {
-                  @Override
-                  public ImmutableList<Webfiles> get() {
-                    ImmutableList.Builder<Webfiles> builder = new ImmutableList.Builder<>();
-                    for (Path path : transitiveDeps) {
-                      try {
-                        builder.add(loadWebfilesPbtxt(path));
+    metrics.add("direct_deps", directDeps.size());
+    metrics.add("transitive_deps", transitiveDeps.size());
+    Multimap<String, String> errors;
+    try (Metrics.Timer validateTimer = metrics.time("validate")) {
+      errors =
+          validator.validate(
+              target,
+              directDeps,
+              Suppliers.memoize(
+                  new Supplier<ImmutableList<Webfiles>>() {
+                    @Override
+                    public ImmutableList<Webfiles> get() {
+                      ImmutableList.Builder<Webfiles> builder = new ImmutableList.Builder<>();
+                      try (Metrics.Timer timer = metrics.time("deps")) {
+                        for (Path path : transitiveDeps) {
+                          builder.add(loadWebfilesPbtxt(path));
+                        }
                       } catch (IOException e) {
                         throw new RuntimeException(e);
                       }
+                      return builder.build();
                     }
-                    return builder.build();
-                  }
-                }));
+                  }));
+    }
     Set<String> superfluous =
         Sets.difference(suppress, Sets.union(errors.keySet(), NEVER_SUPERFLUOUS));
     if (!superfluous.isEmpty()) {
@@ -17,30 +17,50 @@ package io.bazel.rules.closure.webfiles;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.hash.Funnels;
-import com.google.common.hash.Hasher;
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.MoreFiles;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.protobuf.ByteString;
 import io.bazel.rules.closure.webfiles.BuildInfo.WebfileInfo;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
-import java.nio.file.attribute.FileTime;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import javax.annotation.Nullable;
 import javax.annotation.WillCloseWhenClosed;
 import javax.annotation.WillNotClose;
 
@@ -63,10 +83,14 @@ import javax.annotation.WillNotClose;
  * <p>This implementation also creates deterministic output. Normally zip archives have timestamps
  * that can harm the ability of Bazel to cache build artifacts. All timestamps within the zip are
  * set to a hard coded value.
+ *
+ * <p>When constructed with an executor, {@link #writeWebfiles(Map)} compresses several files at
+ * the same time. Each entry is an independent DEFLATE stream, so the archive is byte-for-byte the
+ * same as the one written on a single thread.
  */
 public final class WebfilesWriter implements Closeable {
 
-  private static final FileTime EPOCH = FileTime.fromMillis(472176000000L);
+  private static final String COMMENT = "Created by Bazel Closure Rules";
 
   private static final ImmutableSet<String> ALREADY_COMPRESSED_EXTENSIONS =
       ImmutableSet.of(
@@ -76,10 +100,17 @@ public final class WebfilesWriter implements Closeable {
           "webmanifest", "webp", "wmv", "woff", "zip");
 
   private final SeekableByteChannel channel;
-  private final OutputStream buffer;
-  private final ZipOutputStream zip;
+  private final CountingOutputStream output;
+  private final int compressionLevel;
+  private final Deflater deflater;
+  private final ExecutorService executor;
+  private final int threads;
+  @Nullable private final WebfilesStore store;
   private final Set<String> directories = new HashSet<>();
+  private final List<ZipRecord> records = new ArrayList<>();
   private final List<WebfileInfo> webfiles = new ArrayList<>();
+  private long transferred;
+  private boolean closed;
 
   /**
    * Creates new helper for writing webfiles to a new zip archive.
@@ -88,11 +119,61 @@ public final class WebfilesWriter implements Closeable {
    * @param compressionLevel {@link Deflater} compression level [1,9] which trades trade and size
    */
   public WebfilesWriter(@WillCloseWhenClosed SeekableByteChannel channel, int compressionLevel) {
-    this.channel = channel;
-    buffer = new BufferedOutputStream(Channels.newOutputStream(channel), WebfilesUtils.BUFFER_SIZE);
-    zip = new ZipOutputStream(buffer); // goes very slow without BufferedOutputStream
-    zip.setComment("Created by Bazel Closure Rules");
-    zip.setLevel(compressionLevel);
+    this(channel, compressionLevel, MoreExecutors.newDirectExecutorService(), 1);
+  }
+
+  /**
+   * Creates new helper for writing webfiles to a new zip archive, compressing them in parallel.
+   *
+   * @param channel Java 7 byte {@code channel} already opened with write permission
+   * @param compressionLevel {@link Deflater} compression level [1,9] which trades trade and size
+   * @param executor pool on which {@link #writeWebfiles(Map)} compresses files, which isn't shut
+   *     down by this writer
+   * @param threads maximum number of files to compress at the same time, which bounds how many
+   *     compressed files are held in memory; with 1, files are compressed on the calling thread
+   */
+  public WebfilesWriter(
+      @WillCloseWhenClosed SeekableByteChannel channel,
+      int compressionLevel,
+      ExecutorService executor,
+      int threads) {
+    this(channel, compressionLevel, executor, threads, null);
+  }
+
+  /**
+   * Creates new helper for writing webfiles to a new zip archive, reusing compressed files.
+   *
+   * <p>Files that need to be deflated are first hashed, and if {@code store} already has them at
+   * this compression level, those bytes are written instead. Otherwise they're compressed and
+   * added to the store. This only applies to files given as bytes, paths or {@link ByteSource}s,
+   * since a stream can't be read twice.
+   *
+   * @param channel Java 7 byte {@code channel} already opened with write permission
+   * @param compressionLevel {@link Deflater} compression level [1,9] which trades trade and size
+   * @param executor pool on which {@link #writeWebfiles(Map)} compresses files, which isn't shut
+   *     down by this writer
+   * @param threads maximum number of files to compress at the same time, which bounds how many
+   *     compressed files are held in memory; with 1, files are compressed on the calling thread
+   * @param store compressed files shared with other writers, or {@code null} to always compress
+   */
+  public WebfilesWriter(
+      @WillCloseWhenClosed SeekableByteChannel channel,
+      int compressionLevel,
+      ExecutorService executor,
+      int threads,
+      @Nullable WebfilesStore store) {
+    this.channel = checkNotNull(channel, "channel");
+    this.executor = checkNotNull(executor, "executor");
+    checkArgument(threads >= 1, "threads must be positive: %s", threads);
+    this.compressionLevel = compressionLevel;
+    this.threads = threads;
+    this.store = store;
+    // Goes very slow without BufferedOutputStream. Offsets are counted from wherever the channel
+    // is positioned when we get it, which is the start of the archive.
+    output =
+        new CountingOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(channel), WebfilesUtils.BUFFER_SIZE));
+    deflater = new Deflater(compressionLevel, true);
   }
 
   /** Returns list of protos to put in manifest based on what was written so far. */
@@ -106,6 +187,20 @@ public final class WebfilesWriter implements Closeable {
    * <p>This is a helper method for {@link #writeWebfile(WebfileInfo, InputStream)}.
    */
   public WebfileInfo writeWebfile(WebfileInfo webfile, byte[] data) throws IOException {
+    if (isAlreadyCompressed(webfile.getWebpath())) {
+      // Since it's already in memory, there's no need to copy it like an InputStream.
+      return write(
+          new Compressed(
+              webfile,
+              ZipEntry.STORED,
+              Hashing.crc32().hashBytes(data).padToLong(),
+              data.length,
+              data,
+              ByteString.copyFrom(Hashing.sha256().hashBytes(data).asBytes())));
+    }
+    if (store != null) {
+      return write(compress(webfile, ByteSource.wrap(data)));
+    }
     return writeWebfile(webfile, new ByteArrayInputStream(data));
   }
 
@@ -122,47 +217,296 @@ public final class WebfilesWriter implements Closeable {
       throws IOException {
     checkNotNull(input, "input");
     String name = WebfilesUtils.getZipEntryName(webfile);
-    createEntriesForParentDirectories(name);
-    ZipEntry entry = new ZipEntry(name);
-    entry.setComment(webfile.getRunpath());
-    // Build outputs need to be deterministic. Bazel also doesn't care about modified times because
-    // it uses the file digest to determine if a file is invalidated. So even if we did copy the
-    // time information from the original file, it still might not be a good idea.
-    entry.setCreationTime(EPOCH);
-    entry.setLastModifiedTime(EPOCH);
-    entry.setLastAccessTime(EPOCH);
     if (isAlreadyCompressed(webfile.getWebpath())) {
-      // When opting out of compression, ZipOutputStream expects us to do ALL THIS
-      entry.setMethod(ZipEntry.STORED);
-      if (input instanceof ByteArrayInputStream) {
-        entry.setSize(input.available());
-        Hasher hasher = Hashing.crc32().newHasher();
-        input.mark(-1);
-        ByteStreams.copy(input, Funnels.asOutputStream(hasher));
-        input.reset();
-        entry.setCrc(hasher.hash().padToLong());
-      } else {
-        byte[] data = ByteStreams.toByteArray(input);
-        entry.setSize(data.length);
-        entry.setCrc(Hashing.crc32().hashBytes(data).padToLong());
-        input = new ByteArrayInputStream(data);
+      // Stored entries need their size and CRC in the local header, so they're read up front.
+      return write(compress(webfile, input, deflater));
+    }
+    createEntriesForParentDirectories(name);
+    HasherInputStream source = new HasherInputStream(input, Hashing.sha256().newHasher());
+    CheckedInputStream checked = new CheckedInputStream(source, new CRC32());
+    long offset = getPosition();
+    new ZipRecord(name, webfile.getRunpath(), ZipEntry.DEFLATED, 0, 0, 0, offset)
+        .writeLocalHeader(output);
+    deflate(checked, output, deflater);
+    ZipRecord record =
+        new ZipRecord(
+            name,
+            webfile.getRunpath(),
+            ZipEntry.DEFLATED,
+            checked.getChecksum().getValue(),
+            deflater.getBytesWritten(),
+            deflater.getBytesRead(),
+            offset);
+    record.writeDataDescriptor(output);
+    return addRecord(webfile, record, ByteString.copyFrom(source.hasher.hash().asBytes()));
+  }
+
+  /**
+   * Adds webfile stored in {@code file} to zip archive and returns proto index entry.
+   *
+   * <p>Files that are already compressed are read twice. The first pass computes their CRC and
+   * digest, which have to go in the local header. Then {@link FileChannel#transferTo} copies them
+   * into the archive, which the operating system can do without them passing through the heap. So
+   * memory usage doesn't depend on the size of the file. Other files are deflated as they're read.
+   *
+   * @param webfile original information about webfile
+   * @param file contents of webfile, which mustn't change while it's written
+   * @return modified version of {@code webfile} that's suitable for writing to the final manifest
+   */
+  public WebfileInfo writeWebfile(WebfileInfo webfile, Path file) throws IOException {
+    checkNotNull(file, "file");
+    if (!isAlreadyCompressed(webfile.getWebpath())) {
+      if (store != null) {
+        return write(compress(webfile, MoreFiles.asByteSource(file)));
       }
-    } else {
-      entry.setMethod(ZipEntry.DEFLATED);
+      try (InputStream input = Files.newInputStream(file)) {
+        return writeWebfile(webfile, input);
+      }
+    }
+    String name = WebfilesUtils.getZipEntryName(webfile);
+    try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+      HasherInputStream hashed =
+          new HasherInputStream(Channels.newInputStream(source), Hashing.sha256().newHasher());
+      CheckedInputStream checked = new CheckedInputStream(hashed, new CRC32());
+      long size = ByteStreams.exhaust(checked);
+      createEntriesForParentDirectories(name);
+      ZipRecord record =
+          new ZipRecord(
+              name,
+              webfile.getRunpath(),
+              ZipEntry.STORED,
+              checked.getChecksum().getValue(),
+              size,
+              size,
+              getPosition());
+      record.writeLocalHeader(output);
+      output.flush();
+      // transferTo() reads from an absolute position, so the first pass doesn't need to rewind.
+      long position = 0;
+      while (position < size) {
+        long amount = source.transferTo(position, size - position, channel);
+        if (amount <= 0) {
+          throw new IOException(file + " got smaller while it was being written to zip");
+        }
+        position += amount;
+      }
+      transferred += size;
+      return addRecord(webfile, record, ByteString.copyFrom(hashed.hasher.hash().asBytes()));
+    }
+  }
+
+  /**
+   * Copies {@code webfile} from another archive without decompressing it.
+   *
+   * <p>Its local header, data and data descriptor are copied byte for byte. The entry therefore
+   * keeps the compression it was written with, e.g. the fast level used by incremental archives.
+   * Only its offset changes, along with the central directory, so copying is mostly i/o.
+   *
+   * @param source archive containing {@code webfile}
+   * @param webfile information about webfile in {@code source}, e.g. from its manifest
+   * @return modified version of {@code webfile} that's suitable for writing to the final manifest
+   */
+  public WebfileInfo copyWebfile(MappedWebfilesReader source, WebfileInfo webfile)
+      throws IOException {
+    checkNotNull(source, "source");
+    ZipRecord original = source.getRecord(webfile);
+    ByteBuffer raw = source.getRawEntry(webfile);
+    createEntriesForParentDirectories(original.name);
+    ZipRecord record = original.withOffset(getPosition());
+    output.flush();
+    long size = raw.remaining();
+    while (raw.hasRemaining()) {
+      channel.write(raw);
+    }
+    transferred += size;
+    return addRecord(webfile, record, webfile.getDigest());
+  }
+
+  /**
+   * Copies webfiles from the incremental archives they're stored in, without decompressing them.
+   *
+   * <p>This is how a deploy archive can be built from a {@link Webset}. Each incremental archive is
+   * mapped once, no matter how many webfiles come from it.
+   *
+   * @see #copyWebfile(MappedWebfilesReader, WebfileInfo)
+   */
+  public List<WebfileInfo> copyWebfiles(Iterable<Webfile> files) throws IOException {
+    checkNotNull(files, "files");
+    Map<Path, MappedWebfilesReader> sources = new HashMap<>();
+    List<WebfileInfo> result = new ArrayList<>();
+    for (Webfile webfile : files) {
+      MappedWebfilesReader source = sources.get(webfile.zip());
+      if (source == null) {
+        source = MappedWebfilesReader.open(webfile.zip());
+        sources.put(webfile.zip(), source);
+      }
+      result.add(copyWebfile(source, webfile.info()));
     }
+    return result;
+  }
+
+  /**
+   * Adds webfiles to zip archive in iteration order and returns their proto index entries.
+   *
+   * <p>Files are read and compressed on the executor this writer was constructed with, a few at a
+   * time, and each is written as soon as everything before it has been.
+   *
+   * @param files original information about each webfile, mapped to its data
+   * @return modified versions of the keys that are suitable for writing to the final manifest
+   */
+  public List<WebfileInfo> writeWebfiles(Map<WebfileInfo, ? extends ByteSource> files)
+      throws IOException {
+    checkNotNull(files, "files");
+    List<WebfileInfo> result = new ArrayList<>(files.size());
+    if (threads == 1) {
+      for (Map.Entry<WebfileInfo, ? extends ByteSource> file : files.entrySet()) {
+        if (store != null) {
+          result.add(write(compress(file.getKey(), file.getValue())));
+          continue;
+        }
+        try (InputStream input = file.getValue().openStream()) {
+          result.add(writeWebfile(file.getKey(), input));
+        }
+      }
+      return result;
+    }
+    Deque<Future<Compressed>> pending = new ArrayDeque<>();
+    try {
+      for (final Map.Entry<WebfileInfo, ? extends ByteSource> file : files.entrySet()) {
+        WebfilesUtils.getZipEntryName(file.getKey()); // fail before anything is submitted
+        while (pending.size() >= threads) {
+          result.add(write(getDone(pending.removeFirst())));
+        }
+        pending.add(executor.submit(() -> compress(file.getKey(), file.getValue())));
+      }
+      while (!pending.isEmpty()) {
+        result.add(write(getDone(pending.removeFirst())));
+      }
+    } finally {
+      for (Future<Compressed> future : pending) {
+        future.cancel(true);
+      }
+    }
+    return result;
+  }
+
+  /** Webfile that's been hashed and compressed, but not yet written to the archive. */
+  private static final class Compressed {
+    final WebfileInfo webfile;
+    final int method;
+    final long crc;
+    final long size;
+    final byte[] data;
+    final ByteString digest;
+
+    Compressed(
+        WebfileInfo webfile, int method, long crc, long size, byte[] data, ByteString digest) {
+      this.webfile = webfile;
+      this.method = method;
+      this.crc = crc;
+      this.size = size;
+      this.data = data;
+      this.digest = digest;
+    }
+  }
+
+  private Compressed compress(WebfileInfo webfile, ByteSource source) throws IOException {
+    if (store != null && !isAlreadyCompressed(webfile.getWebpath())) {
+      return compressUsingStore(webfile, source);
+    }
+    Deflater deflater = new Deflater(compressionLevel, true);
+    try (InputStream input = source.openStream()) {
+      return compress(webfile, input, deflater);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private Compressed compressUsingStore(WebfileInfo webfile, ByteSource source)
+      throws IOException {
+    HashCode digest;
+    long crc;
+    long size;
+    try (InputStream input = source.openStream()) {
+      HasherInputStream hashed = new HasherInputStream(input, Hashing.sha256().newHasher());
+      CheckedInputStream checked = new CheckedInputStream(hashed, new CRC32());
+      size = ByteStreams.exhaust(checked);
+      crc = checked.getChecksum().getValue();
+      digest = hashed.hasher.hash();
+    }
+    byte[] data = store.get(digest, compressionLevel, crc, size);
+    if (data == null) {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      Deflater deflater = new Deflater(compressionLevel, true);
+      try (InputStream input = source.openStream()) {
+        deflate(input, buffer, deflater);
+        if (deflater.getBytesRead() != size) {
+          throw new IOException(webfile.getWebpath() + " changed while it was being compressed");
+        }
+      } finally {
+        deflater.end();
+      }
+      data = buffer.toByteArray();
+      store.put(digest, compressionLevel, crc, size, data);
+    }
+    return new Compressed(
+        webfile, ZipEntry.DEFLATED, crc, size, data, ByteString.copyFrom(digest.asBytes()));
+  }
+
+  private static Compressed compress(WebfileInfo webfile, InputStream input, Deflater deflater)
+      throws IOException {
     HasherInputStream source = new HasherInputStream(input, Hashing.sha256().newHasher());
-    long offset = channel.position();
-    zip.putNextEntry(entry);
-    ByteStreams.copy(source, zip);
-    zip.closeEntry();
-    buffer.flush();
+    CheckedInputStream checked = new CheckedInputStream(source, new CRC32());
+    int method;
+    long size;
+    byte[] data;
+    if (isAlreadyCompressed(webfile.getWebpath())) {
+      method = ZipEntry.STORED;
+      data = ByteStreams.toByteArray(checked);
+      size = data.length;
+    } else {
+      method = ZipEntry.DEFLATED;
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      deflate(checked, buffer, deflater);
+      data = buffer.toByteArray();
+      size = deflater.getBytesRead();
+    }
+    return new Compressed(
+        webfile,
+        method,
+        checked.getChecksum().getValue(),
+        size,
+        data,
+        ByteString.copyFrom(source.hasher.hash().asBytes()));
+  }
+
+  private WebfileInfo write(Compressed file) throws IOException {
+    String name = WebfilesUtils.getZipEntryName(file.webfile);
+    createEntriesForParentDirectories(name);
+    ZipRecord record =
+        new ZipRecord(
+            name,
+            file.webfile.getRunpath(),
+            file.method,
+            file.crc,
+            file.data.length,
+            file.size,
+            getPosition());
+    record.writeLocalHeader(output);
+    output.write(file.data);
+    record.writeDataDescriptor(output);
+    return addRecord(file.webfile, record, file.digest);
+  }
+
+  private WebfileInfo addRecord(WebfileInfo webfile, ZipRecord record, ByteString digest) {
+    records.add(record);
     WebfileInfo result =
         webfile
             .toBuilder()
             .clearPath() // Now that it's in the zip, we don't need the ctx.action execroot path.
             .setInZip(true)
-            .setOffset(offset)
-            .setDigest(ByteString.copyFrom(source.hasher.hash().asBytes()))
+            .setOffset(record.offset)
+            .setDigest(digest)
             .build();
     webfiles.add(result);
     return result;
@@ -171,7 +515,6 @@ public final class WebfilesWriter implements Closeable {
   private void createEntriesForParentDirectories(String name) throws IOException {
     checkArgument(!name.startsWith("/") && !name.endsWith("/"));
     int pos = 0;
-    boolean mutated = false;
     while (true) {
       pos = name.indexOf('/', pos + 1);
       if (pos == -1) {
@@ -179,19 +522,41 @@ public final class WebfilesWriter implements Closeable {
       }
       String directory = name.substring(0, pos + 1);
       if (directories.add(directory)) {
-        ZipEntry entry = new ZipEntry(directory);
-        entry.setSize(0);
-        // Directories in web path space aren't real, so we must use the epoch timestamp.
-        entry.setCreationTime(EPOCH);
-        entry.setLastModifiedTime(EPOCH);
-        entry.setLastAccessTime(EPOCH);
-        zip.putNextEntry(entry);
-        zip.closeEntry();
-        mutated = true;
+        // Directories in web path space aren't real, so they're empty and have no comment.
+        ZipRecord record =
+            new ZipRecord(directory, "", ZipEntry.STORED, 0, 0, 0, getPosition());
+        record.writeLocalHeader(output);
+        records.add(record);
       }
     }
-    if (mutated) {
-      buffer.flush();
+  }
+
+  /**
+   * Returns position relative to the start of the archive where the next byte will be written.
+   *
+   * <p>This includes data that bypassed {@link #output} via {@link FileChannel#transferTo}.
+   */
+  private long getPosition() {
+    return output.getCount() + transferred;
+  }
+
+  /** Compresses {@code input} to raw DEFLATE data, which is how zip entries store it. */
+  private static void deflate(InputStream input, OutputStream output, Deflater deflater)
+      throws IOException {
+    deflater.reset();
+    DeflaterOutputStream stream =
+        new DeflaterOutputStream(output, deflater, WebfilesUtils.BUFFER_SIZE);
+    ByteStreams.copy(input, stream);
+    stream.finish(); // unlike close(), leaves output open
+  }
+
+  private static Compressed getDone(Future<Compressed> future) throws IOException {
+    try {
+      return Uninterruptibles.getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
     }
   }
 
@@ -202,7 +567,21 @@ public final class WebfilesWriter implements Closeable {
 
   @Override
   public void close() throws IOException {
-    zip.close();
-    channel.close(); // superfluous but legal
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      long directoryOffset = getPosition();
+      for (ZipRecord record : records) {
+        record.writeCentralHeader(output);
+      }
+      ZipRecord.writeEnd(
+          output, records.size(), directoryOffset, getPosition() - directoryOffset, COMMENT);
+      output.flush();
+    } finally {
+      deflater.end();
+      channel.close();
+    }
   }
 }
@@ -0,0 +1,372 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.webfiles;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Headers of a single entry in a zip archive created by {@link WebfilesWriter}.
+ *
+ * <p>Only the subset of the zip format that webfiles need is supported. There are no extra fields,
+ * no encryption and no zip64 records. Names and comments are always UTF-8, and every entry has the
+ * same timestamp, so the same entries always produce the same bytes.
+ *
+ * <p>Deflated entries have a data descriptor, which allows them to be compressed while they're
+ * written. Stored entries don't, since {@link java.util.zip.ZipInputStream} needs to know their
+ * size up front.
+ *
+ * <p>Records can also be read from the central directory of an archive, including ones written by
+ * {@link java.util.zip.ZipOutputStream}, whose extra fields are skipped.
+ */
+final class ZipRecord {
+
+  static final int LOCAL_HEADER_SIZE = 30;
+  static final int DATA_DESCRIPTOR_SIZE = 16;
+  static final int CENTRAL_HEADER_SIZE = 46;
+  static final int END_SIZE = 22;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+
+  private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+  private static final int FLAG_UTF8 = 0x0800;
+
+  // 1984-12-18 00:00:00 UTC in MS-DOS format. Build outputs need to be deterministic, and Bazel
+  // uses digests rather than modified times to decide if a file changed.
+  private static final int DOS_TIME = 0;
+  private static final int DOS_DATE = (4 << 9) | (12 << 5) | 18;
+
+  private static final long MAX_UINT32 = 0xffffffffL;
+  private static final int MAX_UINT16 = 0xffff;
+
+  final String name;
+  final String comment;
+  final int method;
+  final long crc;
+  final long compressedSize;
+  final long size;
+  final long offset;
+  private final boolean dataDescriptor;
+  private final byte[] nameBytes;
+  private final byte[] commentBytes;
+
+  /**
+   * @param name path of entry within the archive, ending with a slash if it's a directory
+   * @param comment text stored for this entry in the central directory
+   * @param method either {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+   * @param crc CRC-32 of the uncompressed data
+   * @param compressedSize number of bytes of data stored in the archive
+   * @param size number of bytes of uncompressed data
+   * @param offset position of the local header relative to the start of the archive
+   */
+  ZipRecord(
+      String name,
+      String comment,
+      int method,
+      long crc,
+      long compressedSize,
+      long size,
+      long offset) {
+    this(name, comment, method, method == ZipEntry.DEFLATED, crc, compressedSize, size, offset);
+  }
+
+  private ZipRecord(
+      String name,
+      String comment,
+      int method,
+      boolean dataDescriptor,
+      long crc,
+      long compressedSize,
+      long size,
+      long offset) {
+    checkArgument(method == ZipEntry.STORED || method == ZipEntry.DEFLATED, "method: %s", method);
+    checkArgument(method == ZipEntry.DEFLATED || compressedSize == size, "stored size mismatch");
+    checkArgument(
+        0 <= compressedSize && compressedSize <= MAX_UINT32 && 0 <= size && size <= MAX_UINT32,
+        "zip64 isn't supported: %s", name);
+    checkArgument(0 <= offset && offset <= MAX_UINT32, "zip64 isn't supported: %s", name);
+    this.name = name;
+    this.comment = comment;
+    this.method = method;
+    this.dataDescriptor = dataDescriptor;
+    this.crc = crc;
+    this.compressedSize = compressedSize;
+    this.size = size;
+    this.offset = offset;
+    nameBytes = name.getBytes(UTF_8);
+    commentBytes = comment.getBytes(UTF_8);
+    checkArgument(nameBytes.length <= MAX_UINT16, "name too long: %s", name);
+    checkArgument(commentBytes.length <= MAX_UINT16, "comment too long: %s", comment);
+  }
+
+  /** Returns {@code true} if data is followed by a descriptor holding its CRC and sizes. */
+  boolean hasDataDescriptor() {
+    return dataDescriptor;
+  }
+
+  /** Returns number of bytes in the local header, which is followed by the data. */
+  int getLocalHeaderSize() {
+    return LOCAL_HEADER_SIZE + nameBytes.length;
+  }
+
+  /**
+   * Writes the header that goes before the data.
+   *
+   * <p>If this entry has a data descriptor, the CRC and sizes aren't written, so they don't need to
+   * be known yet.
+   */
+  void writeLocalHeader(OutputStream output) throws IOException {
+    boolean descriptor = hasDataDescriptor();
+    ByteBuffer buffer = allocate(getLocalHeaderSize());
+    buffer.putInt(LOCAL_HEADER_SIGNATURE);
+    buffer.putShort((short) getVersion());
+    buffer.putShort((short) getFlags());
+    buffer.putShort((short) method);
+    buffer.putShort((short) DOS_TIME);
+    buffer.putShort((short) DOS_DATE);
+    buffer.putInt(descriptor ? 0 : (int) crc);
+    buffer.putInt(descriptor ? 0 : (int) compressedSize);
+    buffer.putInt(descriptor ? 0 : (int) size);
+    buffer.putShort((short) nameBytes.length);
+    buffer.putShort((short) 0);
+    buffer.put(nameBytes);
+    output.write(buffer.array());
+  }
+
+  /** Writes the descriptor that goes after the data, if this entry has one. */
+  void writeDataDescriptor(OutputStream output) throws IOException {
+    if (!hasDataDescriptor()) {
+      return;
+    }
+    ByteBuffer buffer = allocate(DATA_DESCRIPTOR_SIZE);
+    buffer.putInt(DATA_DESCRIPTOR_SIGNATURE);
+    buffer.putInt((int) crc);
+    buffer.putInt((int) compressedSize);
+    buffer.putInt((int) size);
+    output.write(buffer.array());
+  }
+
+  /** Writes the record for this entry in the central directory at the end of the archive. */
+  void writeCentralHeader(OutputStream output) throws IOException {
+    ByteBuffer buffer = allocate(CENTRAL_HEADER_SIZE + nameBytes.length + commentBytes.length);
+    buffer.putInt(CENTRAL_HEADER_SIGNATURE);
+    buffer.putShort((short) getVersion()); // made by
+    buffer.putShort((short) getVersion()); // needed to extract
+    buffer.putShort((short) getFlags());
+    buffer.putShort((short) method);
+    buffer.putShort((short) DOS_TIME);
+    buffer.putShort((short) DOS_DATE);
+    buffer.putInt((int) crc);
+    buffer.putInt((int) compressedSize);
+    buffer.putInt((int) size);
+    buffer.putShort((short) nameBytes.length);
+    buffer.putShort((short) 0); // extra field length
+    buffer.putShort((short) commentBytes.length);
+    buffer.putShort((short) 0); // disk number
+    buffer.putShort((short) 0); // internal attributes
+    buffer.putInt(0); // external attributes
+    buffer.putInt((int) offset);
+    buffer.put(nameBytes);
+    buffer.put(commentBytes);
+    output.write(buffer.array());
+  }
+
+  /**
+   * Writes the record that ends an archive, after its central directory.
+   *
+   * @param entries number of records in the central directory
+   * @param directoryOffset position of the central directory relative to the start of the archive
+   * @param directorySize number of bytes in the central directory
+   */
+  static void writeEnd(
+      OutputStream output, int entries, long directoryOffset, long directorySize, String comment)
+      throws IOException {
+    checkArgument(entries <= MAX_UINT16, "zip64 isn't supported: %s entries", entries);
+    checkArgument(
+        directoryOffset + directorySize <= MAX_UINT32, "zip64 isn't supported: archive too large");
+    byte[] commentBytes = comment.getBytes(UTF_8);
+    ByteBuffer buffer = allocate(END_SIZE + commentBytes.length);
+    buffer.putInt(END_SIGNATURE);
+    buffer.putShort((short) 0); // this disk
+    buffer.putShort((short) 0); // disk with central directory
+    buffer.putShort((short) entries);
+    buffer.putShort((short) entries);
+    buffer.putInt((int) directorySize);
+    buffer.putInt((int) directoryOffset);
+    buffer.putShort((short) commentBytes.length);
+    buffer.put(commentBytes);
+    output.write(buffer.array());
+  }
+
+  /**
+   * Parses the central directory of an archive.
+   *
+   * @param zip entire contents of the archive, starting at index zero, which isn't modified
+   * @return records in the order they appear in the central directory
+   * @throws ZipException if the archive is malformed or needs features that aren't supported
+   */
+  static List<ZipRecord> readCentralDirectory(ByteBuffer zip) throws ZipException {
+    ByteBuffer buffer = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int end = findEnd(buffer);
+    int entries = buffer.getShort(end + 10) & MAX_UINT16;
+    long directorySize = buffer.getInt(end + 12) & MAX_UINT32;
+    long directoryOffset = buffer.getInt(end + 16) & MAX_UINT32;
+    if (directoryOffset + directorySize > end) {
+      throw new ZipException("central directory is out of bounds");
+    }
+    List<ZipRecord> result = new ArrayList<>(entries);
+    int pos = (int) directoryOffset;
+    for (int i = 0; i < entries; i++) {
+      if (pos + CENTRAL_HEADER_SIZE > end || buffer.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+        throw new ZipException("bad central directory header at " + pos);
+      }
+      int flags = buffer.getShort(pos + 8) & MAX_UINT16;
+      int method = buffer.getShort(pos + 10) & MAX_UINT16;
+      long crc = buffer.getInt(pos + 16) & MAX_UINT32;
+      long compressedSize = buffer.getInt(pos + 20) & MAX_UINT32;
+      long size = buffer.getInt(pos + 24) & MAX_UINT32;
+      int nameLength = buffer.getShort(pos + 28) & MAX_UINT16;
+      int extraLength = buffer.getShort(pos + 30) & MAX_UINT16;
+      int commentLength = buffer.getShort(pos + 32) & MAX_UINT16;
+      long offset = buffer.getInt(pos + 42) & MAX_UINT32;
+      int next = pos + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+      if (next > end) {
+        throw new ZipException("central directory header out of bounds at " + pos);
+      }
+      String name = decode(buffer, pos + CENTRAL_HEADER_SIZE, nameLength);
+      String comment =
+          decode(buffer, pos + CENTRAL_HEADER_SIZE + nameLength + extraLength, commentLength);
+      if (compressedSize == MAX_UINT32 || size == MAX_UINT32 || offset == MAX_UINT32) {
+        throw new ZipException("zip64 isn't supported: " + name);
+      }
+      try {
+        result.add(
+            new ZipRecord(
+                name,
+                comment,
+                method,
+                (flags & FLAG_DATA_DESCRIPTOR) != 0,
+                crc,
+                compressedSize,
+                size,
+                offset));
+      } catch (IllegalArgumentException e) {
+        throw new ZipException(e.getMessage());
+      }
+      pos = next;
+    }
+    return result;
+  }
+
+  /**
+   * Returns position of this entry's data within {@code zip}, which comes after its local header.
+   *
+   * <p>The local header is read rather than assumed to be the same as {@link #getLocalHeaderSize},
+   * since other zip writers put extra fields in it.
+   *
+   * @throws ZipException if there isn't a local header at {@link #offset}
+   */
+  long getDataOffset(ByteBuffer zip) throws ZipException {
+    ByteBuffer buffer = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (offset + LOCAL_HEADER_SIZE > buffer.limit()
+        || buffer.getInt((int) offset) != LOCAL_HEADER_SIGNATURE) {
+      throw new ZipException("bad local header for " + name + " at " + offset);
+    }
+    int nameLength = buffer.getShort((int) offset + 26) & MAX_UINT16;
+    int extraLength = buffer.getShort((int) offset + 28) & MAX_UINT16;
+    long result = offset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    if (result + compressedSize > buffer.limit()) {
+      throw new ZipException("data out of bounds for " + name + " at " + offset);
+    }
+    return result;
+  }
+
+  /**
+   * Returns position within {@code zip} just past this entry's data and data descriptor.
+   *
+   * @throws ZipException if the entry is malformed
+   */
+  long getEndOffset(ByteBuffer zip) throws ZipException {
+    long end = getDataOffset(zip) + compressedSize;
+    if (!dataDescriptor) {
+      return end;
+    }
+    ByteBuffer buffer = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    // The signature of a data descriptor is optional.
+    long result =
+        end + 8 <= buffer.limit()
+                && buffer.getInt((int) end) == DATA_DESCRIPTOR_SIGNATURE
+                && (buffer.getInt((int) end + 4) & MAX_UINT32) == crc
+            ? end + DATA_DESCRIPTOR_SIZE
+            : end + DATA_DESCRIPTOR_SIZE - 4;
+    if (result > buffer.limit()) {
+      throw new ZipException("data descriptor out of bounds for " + name);
+    }
+    return result;
+  }
+
+  /** Returns copy of this record for the same entry at a different position in an archive. */
+  ZipRecord withOffset(long offset) {
+    return new ZipRecord(name, comment, method, dataDescriptor, crc, compressedSize, size, offset);
+  }
+
+  /** Returns a view of {@code length} bytes of {@code buffer} starting at {@code position}. */
+  static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+    ByteBuffer result = buffer.duplicate();
+    result.position(position);
+    result.limit(position + length);
+    return result.slice();
+  }
+
+  private int getVersion() {
+    return method == ZipEntry.DEFLATED ? 20 : 10;
+  }
+
+  private int getFlags() {
+    return hasDataDescriptor() ? FLAG_UTF8 | FLAG_DATA_DESCRIPTOR : FLAG_UTF8;
+  }
+
+  private static int findEnd(ByteBuffer buffer) throws ZipException {
+    int limit = buffer.limit();
+    // The end record is followed by a comment of up to 64k, which could contain its signature.
+    for (int pos = limit - END_SIZE; pos >= Math.max(0, limit - END_SIZE - MAX_UINT16); pos--) {
+      if (buffer.getInt(pos) == END_SIGNATURE
+          && pos + END_SIZE + (buffer.getShort(pos + 20) & MAX_UINT16) == limit) {
+        return pos;
+      }
+    }
+    throw new ZipException("end of central directory not found");
+  }
+
+  private static String decode(ByteBuffer buffer, int position, int length) {
+    return UTF_8.decode(slice(buffer, position, length)).toString();
+  }
+
+  private static ByteBuffer allocate(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
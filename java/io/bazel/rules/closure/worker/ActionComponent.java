@@ -56,6 +56,10 @@ public interface ActionComponent<P extends Program> {
     @BindsInstance
     B closer(@Action Closer closer);
 
+    /** Binds timers and counters for this action. */
+    @BindsInstance
+    B metrics(@Action Metrics metrics);
+
     /** Creates instance of component. */
     I build();
   }
@@ -50,17 +50,32 @@ public final class InputCache<T> implements Function<Path, T> {
 
   private final LoadingCache<Key, T> cache;
   private final Map<Path, HashCode> digests;
+  private final Metrics metrics;
 
   @Inject
-  public InputCache(LoadingCache<Key, T> cache, @Action Map<Path, HashCode> digests) {
+  public InputCache(
+      LoadingCache<Key, T> cache, @Action Map<Path, HashCode> digests, @Action Metrics metrics) {
     this.cache = cache;
     this.digests = digests;
+    this.metrics = metrics;
   }
 
-  /** Loads resource from cache, if available, or from disk. */
+  /**
+   * Loads resource from cache, if available, or from disk.
+   *
+   * <p>Hits and misses are counted in {@link Metrics} under the simple name of the value's class.
+   */
   public T load(Path path) throws IOException {
+    Key key = makeKey(path);
+    T value = cache.getIfPresent(key);
+    if (value != null) {
+      metrics.increment("InputCache." + value.getClass().getSimpleName() + ".hits");
+      return value;
+    }
     try {
-      return cache.get(makeKey(path));
+      value = cache.get(key);
+      metrics.increment("InputCache." + value.getClass().getSimpleName() + ".misses");
+      return value;
     } catch (ExecutionException e) {
       String message = "Error reading: " + path;
       if (e.getCause() instanceof IOException) {
@@ -0,0 +1,281 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.worker;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Keeps the heap of a persistent worker from filling up with cached data.
+ *
+ * <p>Caches that live as long as the worker should be created with {@link #newCache}, so their
+ * weight is known. After each request, {@link PersistentWorker} calls {@link #relieve}. Once the
+ * live heap reaches the shed watermark, it empties caches, largest first, until their weight
+ * should bring it {@value #HYSTERESIS} below that, and then collects garbage once to find out. If
+ * that doesn't bring it below the recycle watermark, the worker should exit, so Bazel starts a
+ * fresh one.
+ *
+ * <p>When the rest of the heap is too big for shedding to get below the watermark, caches aren't
+ * shed again until the live heap grows by another {@value #HYSTERESIS}, since refilling and
+ * emptying them on every request would only add garbage collections.
+ */
+@Singleton
+public final class MemoryGovernor {
+
+  static final double DEFAULT_SHED_WATERMARK = 0.7;
+  static final double DEFAULT_RECYCLE_WATERMARK = 0.9;
+
+  // Fraction of the maximum heap that shedding aims to free, beyond the watermark.
+  static final double HYSTERESIS = 0.1;
+
+  // Fraction of the maximum heap that caches must weigh before they're worth shedding.
+  static final double NEGLIGIBLE_WEIGHT = 0.01;
+
+  /** Measurements of the heap, which tests can fake. */
+  interface Heap {
+
+    /** Returns fraction of the maximum heap that was live after the most recent collection. */
+    double getUsage();
+
+    /** Returns number of collections so far, to tell whether {@link #getUsage} has changed. */
+    long getCollections();
+
+    /** Returns maximum heap size in bytes. */
+    long getMaxBytes();
+
+    /** Asks for a full collection, which the JVM might ignore. */
+    void collect();
+  }
+
+  private final Heap heap;
+  private final List<TrackedCache> caches = new CopyOnWriteArrayList<>();
+  private volatile double shedWatermark = DEFAULT_SHED_WATERMARK;
+  private volatile double recycleWatermark = DEFAULT_RECYCLE_WATERMARK;
+
+  // Live heap left by the last shedding that didn't get below its target, or zero.
+  private double floor;
+
+  @Inject
+  public MemoryGovernor() {
+    this(new JvmHeap());
+  }
+
+  MemoryGovernor(Heap heap) {
+    this.heap = heap;
+  }
+
+  /**
+   * Sets thresholds, as fractions of the maximum heap size.
+   *
+   * @param shedWatermark live heap usage above which caches are emptied
+   * @param recycleWatermark live heap usage above which the worker should exit, once all caches
+   *     have been emptied
+   */
+  public void setWatermarks(double shedWatermark, double recycleWatermark) {
+    checkArgument(
+        0 < shedWatermark && shedWatermark <= recycleWatermark,
+        "need 0 < shed watermark %s <= recycle watermark %s",
+        shedWatermark,
+        recycleWatermark);
+    this.shedWatermark = shedWatermark;
+    this.recycleWatermark = recycleWatermark;
+  }
+
+  /**
+   * Creates a cache whose total weight is tracked, so it can be shed when memory runs low.
+   *
+   * @param name name of cache for logging
+   * @param maximumWeight upper bound on total weight of entries
+   * @param weigher returns approximate size of an entry in bytes, so caches can be compared
+   */
+  public <K, V> LoadingCache<K, V> newCache(
+      String name,
+      long maximumWeight,
+      Weigher<? super K, ? super V> weigher,
+      CacheLoader<? super K, V> loader) {
+    AtomicLong weight = new AtomicLong();
+    LoadingCache<K, V> cache = newBuilder(maximumWeight, weigher, weight).build(loader);
+    caches.add(new TrackedCache(name, cache, weight));
+    return cache;
+  }
+
+  /**
+   * Creates a cache whose total weight is tracked, for values that are put rather than loaded.
+   *
+   * @see #newCache(String, long, Weigher, CacheLoader)
+   */
+  public <K, V> Cache<K, V> newCache(
+      String name, long maximumWeight, Weigher<? super K, ? super V> weigher) {
+    AtomicLong weight = new AtomicLong();
+    Cache<K, V> cache = newBuilder(maximumWeight, weigher, weight).build();
+    caches.add(new TrackedCache(name, cache, weight));
+    return cache;
+  }
+
+  private static <K, V> CacheBuilder<K, V> newBuilder(
+      long maximumWeight, final Weigher<? super K, ? super V> weigher, final AtomicLong weight) {
+    return CacheBuilder.newBuilder()
+        .maximumWeight(maximumWeight)
+        .weigher(
+            (K key, V value) -> {
+              int result = weigher.weigh(key, value);
+              weight.addAndGet(result);
+              return result;
+            })
+        .removalListener(
+            (RemovalNotification<K, V> removal) -> {
+              if (removal.getKey() != null && removal.getValue() != null) {
+                weight.addAndGet(-weigher.weigh(removal.getKey(), removal.getValue()));
+              }
+            });
+  }
+
+  /**
+   * Sheds caches if the heap is too full.
+   *
+   * @param log stream for reporting what was done, e.g. the worker's real stderr
+   * @return {@code true} if the worker should be recycled
+   */
+  public synchronized boolean relieve(PrintStream log) {
+    double usage = heap.getUsage();
+    double target = shedWatermark - HYSTERESIS;
+    if (usage < target) {
+      floor = 0;
+    }
+    if (usage < Math.max(shedWatermark, floor + HYSTERESIS)) {
+      return usage >= recycleWatermark;
+    }
+    long maxBytes = heap.getMaxBytes();
+    long total = 0;
+    for (TrackedCache cache : caches) {
+      total += cache.weight.get();
+    }
+    if (total < maxBytes * NEGLIGIBLE_WEIGHT) {
+      return usage >= recycleWatermark;
+    }
+    // Weights are only estimates, so the heap is measured once after all the shedding is done,
+    // rather than paying for a full collection per cache.
+    double expected = usage;
+    while (expected >= target) {
+      TrackedCache largest = null;
+      long weight = 0;
+      for (TrackedCache cache : caches) {
+        if (cache.weight.get() > weight) {
+          largest = cache;
+          weight = cache.weight.get();
+        }
+      }
+      if (largest == null) {
+        break;
+      }
+      largest.cache.invalidateAll();
+      largest.cache.cleanUp();
+      expected -= (double) weight / maxBytes;
+      log.printf(
+          "Live heap at %.0f%% so shed %,d bytes of %s cache%n", usage * 100, weight, largest.name);
+    }
+    long collections = heap.getCollections();
+    heap.collect();
+    if (heap.getCollections() == collections) {
+      // The usage figure still predates the shedding, e.g. due to -XX:+DisableExplicitGC, so
+      // it can't say whether that helped. Wait for the heap to grow before shedding again.
+      log.println("Garbage collection after shedding didn't happen");
+      floor = usage;
+      return usage >= recycleWatermark;
+    }
+    usage = heap.getUsage();
+    log.printf("Garbage collection after shedding left live heap at %.0f%%%n", usage * 100);
+    floor = usage >= target ? usage : 0;
+    return usage >= recycleWatermark;
+  }
+
+  /** Measures the heap of this JVM. */
+  private static final class JvmHeap implements Heap {
+
+    @Override
+    public double getUsage() {
+      long used = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          MemoryUsage usage = pool.getCollectionUsage();
+          if (usage != null) {
+            used += usage.getUsed();
+          }
+        }
+      }
+      return (double) used / getMaxBytes();
+    }
+
+    // Collectors that only handle the young generation are left out, since they don't update the
+    // figure for the old generation.
+    @Override
+    public long getCollections() {
+      List<String> heapPools = new ArrayList<>();
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          heapPools.add(pool.getName());
+        }
+      }
+      long collections = 0;
+      for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+        if (Arrays.asList(collector.getMemoryPoolNames()).containsAll(heapPools)) {
+          collections += Math.max(0, collector.getCollectionCount());
+        }
+      }
+      return collections;
+    }
+
+    @Override
+    public long getMaxBytes() {
+      return Runtime.getRuntime().maxMemory();
+    }
+
+    @Override
+    public void collect() {
+      System.gc();
+    }
+  }
+
+  private static final class TrackedCache {
+    final String name;
+    final Cache<?, ?> cache;
+    final AtomicLong weight;
+
+    TrackedCache(String name, Cache<?, ?> cache, AtomicLong weight) {
+      this.name = name;
+      this.cache = cache;
+      this.weight = weight;
+    }
+  }
+}
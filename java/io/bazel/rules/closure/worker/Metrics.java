@@ -0,0 +1,117 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.worker;
+
+import com.google.common.base.Joiner;
+import com.google.common.escape.Escaper;
+import com.google.common.escape.Escapers;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers and counters for a single ctx.action invocation.
+ *
+ * <p>Programs break their work down into phases by writing {@code try (Metrics.Timer timer =
+ * metrics.time("compile")) { ... }}. Timers with the same name add up, so a phase can be entered
+ * many times. This class is thread safe, so work that was farmed out to other threads can be
+ * recorded too.
+ */
+public final class Metrics {
+
+  private static final Escaper JSON_ESCAPER =
+      Escapers.builder()
+          .addEscape('"', "\\\"")
+          .addEscape('\\', "\\\\")
+          .addEscape('\n', "\\n")
+          .addEscape('\r', "\\r")
+          .addEscape('\t', "\\t")
+          .build();
+
+  private final Map<String, String> tags = new LinkedHashMap<>();
+  private final Map<String, Long> counters = new LinkedHashMap<>();
+  private final Map<String, Long> timers = new LinkedHashMap<>();
+
+  /** Starts timing {@code phase} until the returned object is closed. */
+  public Timer time(String phase) {
+    return new Timer(phase, System.nanoTime());
+  }
+
+  /** Adds time spent on {@code phase} that was measured elsewhere. */
+  public synchronized void record(String phase, long duration, TimeUnit unit) {
+    add(timers, phase, unit.toNanos(duration));
+  }
+
+  /** Increments {@code counter} by one. */
+  public void increment(String counter) {
+    add(counter, 1);
+  }
+
+  /** Increments {@code counter} by {@code delta}. */
+  public synchronized void add(String counter, long delta) {
+    add(counters, counter, delta);
+  }
+
+  /** Sets a string value describing the action, e.g. its label. */
+  public synchronized void tag(String key, String value) {
+    tags.put(key, value);
+  }
+
+  /** Returns metrics as a single line of JSON, with times in milliseconds. */
+  public synchronized String toJson() {
+    List<String> fields = new ArrayList<>();
+    for (Map.Entry<String, String> tag : tags.entrySet()) {
+      fields.add(quote(tag.getKey()) + ":" + quote(tag.getValue()));
+    }
+    List<String> items = new ArrayList<>();
+    for (Map.Entry<String, Long> counter : counters.entrySet()) {
+      items.add(quote(counter.getKey()) + ":" + counter.getValue());
+    }
+    fields.add("\"counters\":{" + Joiner.on(',').join(items) + "}");
+    items.clear();
+    for (Map.Entry<String, Long> timer : timers.entrySet()) {
+      items.add(quote(timer.getKey()) + ":" + TimeUnit.NANOSECONDS.toMillis(timer.getValue()));
+    }
+    fields.add("\"timers_ms\":{" + Joiner.on(',').join(items) + "}");
+    return "{" + Joiner.on(',').join(fields) + "}";
+  }
+
+  private static void add(Map<String, Long> map, String key, long delta) {
+    Long value = map.get(key);
+    map.put(key, value == null ? delta : value + delta);
+  }
+
+  private static String quote(String string) {
+    return "\"" + JSON_ESCAPER.escape(string) + "\"";
+  }
+
+  /** Running timer for a phase, which is recorded when closed. */
+  public final class Timer implements AutoCloseable {
+    private final String phase;
+    private final long start;
+
+    private Timer(String phase, long start) {
+      this.phase = phase;
+      this.start = start;
+    }
+
+    @Override
+    public void close() {
+      record(phase, System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+}
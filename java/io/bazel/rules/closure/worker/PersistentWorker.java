@@ -14,6 +14,7 @@
 
 package io.bazel.rules.closure.worker;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.CharMatcher;
@@ -21,23 +22,34 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.Iterables;
 import com.google.common.hash.HashCode;
 import com.google.common.io.Closer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.worker.WorkerProtocol.Input;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 /**
@@ -47,22 +59,34 @@ import javax.inject.Inject;
  * worker process that handles multiple invocations per JVM. It will also be backwards compatible
  * with being run as a normal single-invocation command.
  *
+ * <p>If Bazel sends requests with a nonzero {@code request_id}, then the worker is being used as a
+ * multiplex worker, and requests are run concurrently on a bounded thread pool. Output written to
+ * {@link System#out} and {@link System#err} is captured separately for each request by routing it
+ * based on the thread that wrote it.
+ *
  * @param <T> worker component type
  */
 public final class PersistentWorker<T extends WorkerComponent<?, ?, ?>> {
 
   private static final String FLAGFILE_ARG = "--flagfile=";
   private static final String PERSISTENT_WORKER_ARG = "--persistent_worker";
+  private static final String MULTIPLEX_THREADS_ARG = "--multiplex_threads=";
+  private static final String METRICS_FILE_ARG = "--metrics_file=";
+  private static final String SHED_WATERMARK_ARG = "--memory_shed_watermark=";
+  private static final String RECYCLE_WATERMARK_ARG = "--memory_recycle_watermark=";
+  private static final String MAX_OUTPUT_BYTES_ARG = "--max_output_bytes=";
+  private static final String OUTPUT_SPILL_DIR_ARG = "--output_spill_dir=";
+  private static final int DEFAULT_MAX_OUTPUT_BYTES = 1024 * 1024;
 
   private final T component;
   private final FileSystem fs;
-  private final List<String> arguments = new ArrayList<>();
-  private final Map<Path, HashCode> inputDigests = new HashMap<>();
+  private final MemoryGovernor governor;
 
   @Inject
-  PersistentWorker(T component, FileSystem fs) {
+  PersistentWorker(T component, FileSystem fs, MemoryGovernor governor) {
     this.component = component;
     this.fs = fs;
+    this.governor = governor;
   }
 
   /**
@@ -73,6 +97,24 @@ public final class PersistentWorker<T extends WorkerComponent<?, ?, ?>> {
    * WorkRequest} protos from stdin until EOF. Otherwise, it will delegate a single invocation of
    * the program specified in the type parameter.
    *
+   * <p>When run as a persistent worker, {@value #MULTIPLEX_THREADS_ARG} may be passed to limit how
+   * many multiplexed requests are processed at once. It defaults to the number of processors. If
+   * {@value #METRICS_FILE_ARG} is passed, then the {@link Metrics} of each request are appended to
+   * that file as a line of JSON.
+   *
+   * <p>Output is held in memory up to {@value #MAX_OUTPUT_BYTES_ARG} bytes per request (default
+   * 1MiB). Anything longer is written in full to a file in {@value #OUTPUT_SPILL_DIR_ARG} (default
+   * {@code java.io.tmpdir}), and the response carries the beginning of it plus the file's path.
+   * Only the newest of those files are kept.
+   *
+   * <p>After each request, the worker checks how much of the heap was live after the last garbage
+   * collection. Above {@value #SHED_WATERMARK_ARG} (default 0.7) it empties the caches registered
+   * with {@link MemoryGovernor}, largest first, and collects garbage once. If that can't get usage
+   * back below the watermark, caches are left alone until it grows further. If usage is above
+   * {@value #RECYCLE_WATERMARK_ARG} (default 0.9) afterwards, and the worker isn't multiplexed, it
+   * exits once the response is written, so Bazel replaces it with a fresh process. Multiplexed
+   * workers only shed caches, since exiting would abandon requests Bazel has already sent.
+   *
    * <p>Since this method is intended to be invoked from main, it swallows exceptions, including
    * {@link InterruptedException}, and focuses on returning the result code.
    *
@@ -81,11 +123,17 @@ public final class PersistentWorker<T extends WorkerComponent<?, ?, ?>> {
   public int run(List<String> args) throws IOException {
     try {
       if (args.contains(PERSISTENT_WORKER_ARG)) {
-        return runAsPersistentWorker();
+        governor.setWatermarks(
+            getFraction(args, SHED_WATERMARK_ARG, MemoryGovernor.DEFAULT_SHED_WATERMARK),
+            getFraction(args, RECYCLE_WATERMARK_ARG, MemoryGovernor.DEFAULT_RECYCLE_WATERMARK));
+        return runAsPersistentWorker(
+            getMultiplexThreads(args),
+            getMetricsFile(args),
+            getMaxOutputBytes(args),
+            getOutputSpillDirectory(args));
       } else {
-        arguments.addAll(args);
-        loadArguments(false);
-        return runProgram(System.err, new FakeInputDigestMap());
+        return runProgram(
+            loadArguments(args, false), System.err, new FakeInputDigestMap(), new Metrics());
       }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
@@ -93,10 +141,14 @@ public final class PersistentWorker<T extends WorkerComponent<?, ?, ?>> {
     }
   }
 
-  private int runProgram(PrintStream output, Map<Path, HashCode> digests)
+  private int runProgram(
+      List<String> arguments, PrintStream output, Map<Path, HashCode> digests, Metrics metrics)
       throws InterruptedException {
     AtomicBoolean failed = new AtomicBoolean();
-    try (Closer closer = Closer.create()) {
+    // Collection time is for the whole JVM, so it's shared between concurrent requests.
+    long gcMillis = getGarbageCollectionMillis();
+    try (Closer closer = Closer.create();
+        Metrics.Timer timer = metrics.time("total")) {
       component
           .newActionComponentBuilder()
           .args(new ArrayList<>(arguments))
@@ -104,6 +156,7 @@ public final class PersistentWorker<T extends WorkerComponent<?, ?, ?>> {
           .inputDigests(digests)
           .output(output)
           .failed(failed)
+          .metrics(metrics)
           .build()
           .program()
           .run();
@@ -116,57 +169,158 @@ public final class PersistentWorker<T extends WorkerComponent<?, ?, ?>> {
           Joiner.on(' ').join(arguments));
       e.printStackTrace(output);
       return 1;
+    } finally {
+      metrics.record("gc", getGarbageCollectionMillis() - gcMillis, TimeUnit.MILLISECONDS);
     }
     return failed.get() ? 1 : 0;
   }
 
-  private int runAsPersistentWorker() throws IOException, InterruptedException {
+  private int runAsPersistentWorker(
+      int threads, @Nullable Path metricsFile, int maxOutputBytes, Path spillDirectory)
+      throws IOException, InterruptedException {
     InputStream realStdIn = System.in;
     PrintStream realStdOut = System.out;
     PrintStream realStdErr = System.err;
+    ThreadLocalOutputStream stdio = new ThreadLocalOutputStream(realStdErr);
+    Supplier<SpillingOutputStream> outputs =
+        () -> new SpillingOutputStream(maxOutputBytes, spillDirectory);
+    // Bounds the number of multiplexed requests that have been read but not yet answered.
+    Semaphore slots = new Semaphore(threads);
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactoryBuilder().setNameFormat("PersistentWorker-%d").setDaemon(true).build());
     try (InputStream emptyIn = new ByteArrayInputStream(new byte[0]);
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        PrintStream ps = new PrintStream(buffer)) {
+        PrintStream ps = new PrintStream(stdio, true)) {
       System.setIn(emptyIn);
       System.setOut(ps);
       System.setErr(ps);
       while (true) {
         WorkRequest request = WorkRequest.parseDelimitedFrom(realStdIn);
         if (request == null) {
-          return 0;
+          break;
         }
-        for (Input input : request.getInputsList()) {
-          inputDigests.put(
-              fs.getPath(input.getPath()), HashCode.fromBytes(input.getDigest().toByteArray()));
+        if (request.getRequestId() == 0) {
+          writeResponse(realStdOut, handleRequest(request, stdio, metricsFile, outputs));
+          if (governor.relieve(realStdErr)) {
+            realStdErr.println("Heap is still too full after shedding caches; recycling worker");
+            break;
+          }
+          continue;
         }
-        arguments.addAll(request.getArgumentsList());
-        loadArguments(true);
-        int exitCode = runProgram(ps, Collections.unmodifiableMap(inputDigests));
-        WorkResponse.newBuilder()
-            .setOutput(new String(buffer.toByteArray(), UTF_8))
-            .setExitCode(exitCode)
-            .build()
-            .writeDelimitedTo(realStdOut);
-        realStdOut.flush();
-        buffer.reset();
-        arguments.clear();
-        inputDigests.clear();
+        slots.acquire();
+        executor.execute(
+            () -> {
+              try {
+                writeResponse(
+                    realStdOut, handleMultiplexRequest(request, stdio, metricsFile, outputs));
+                governor.relieve(realStdErr);
+              } catch (IOException e) {
+                e.printStackTrace(realStdErr);
+              } finally {
+                slots.release();
+              }
+            });
       }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      return 0;
     } finally {
+      executor.shutdownNow();
       System.setIn(realStdIn);
       System.setOut(realStdOut);
       System.setErr(realStdErr);
     }
   }
 
-  private void loadArguments(boolean isWorker) {
+  /**
+   * Handles request on a pool thread, always returning a response.
+   *
+   * <p>Bazel waits for a response to every multiplexed request, so nothing thrown here may escape,
+   * not even an {@link Error}, or the build would hang.
+   */
+  private WorkResponse handleMultiplexRequest(
+      WorkRequest request,
+      ThreadLocalOutputStream stdio,
+      @Nullable Path metricsFile,
+      Supplier<SpillingOutputStream> outputs) {
+    try {
+      return handleRequest(request, stdio, metricsFile, outputs);
+    } catch (Throwable t) {
+      if (t instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      StringWriter message = new StringWriter();
+      try (PrintWriter writer = new PrintWriter(message)) {
+        writer.printf(
+            "ERROR: Worker failed to handle request with args: %s%n",
+            Joiner.on(' ').join(request.getArgumentsList()));
+        t.printStackTrace(writer);
+      }
+      return WorkResponse.newBuilder()
+          .setOutput(message.toString())
+          .setExitCode(1)
+          .setRequestId(request.getRequestId())
+          .build();
+    }
+  }
+
+  private WorkResponse handleRequest(
+      WorkRequest request,
+      ThreadLocalOutputStream stdio,
+      @Nullable Path metricsFile,
+      Supplier<SpillingOutputStream> outputs)
+      throws InterruptedException, IOException {
+    Metrics metrics = new Metrics();
+    Map<Path, HashCode> inputDigests = new HashMap<>();
+    for (Input input : request.getInputsList()) {
+      inputDigests.put(
+          fs.getPath(input.getPath()), HashCode.fromBytes(input.getDigest().toByteArray()));
+    }
+    SpillingOutputStream buffer = outputs.get();
+    int exitCode;
+    try (PrintStream ps = new PrintStream(buffer)) {
+      stdio.bind(buffer);
+      List<String> arguments;
+      try (Metrics.Timer timer = metrics.time("flagfile")) {
+        arguments = loadArguments(request.getArgumentsList(), true);
+      }
+      exitCode = runProgram(arguments, ps, Collections.unmodifiableMap(inputDigests), metrics);
+    } finally {
+      stdio.unbind();
+    }
+    metrics.add("output_bytes", buffer.size());
+    if (metricsFile != null) {
+      String line = metrics.toJson() + "\n";
+      synchronized (this) {
+        Files.write(
+            metricsFile,
+            line.getBytes(UTF_8),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND);
+      }
+    }
+    return WorkResponse.newBuilder()
+        .setOutputBytes(buffer.toByteString())
+        .setExitCode(exitCode)
+        .setRequestId(request.getRequestId())
+        .build();
+  }
+
+  private static void writeResponse(PrintStream output, WorkResponse response) throws IOException {
+    synchronized (output) {
+      response.writeDelimitedTo(output);
+      output.flush();
+    }
+  }
+
+  private List<String> loadArguments(List<String> arguments, boolean isWorker) {
     try {
       String lastArg = Iterables.getLast(arguments, "");
       if (lastArg.startsWith("@")) {
         Path flagFile = fs.getPath(CharMatcher.is('@').trimLeadingFrom(lastArg));
         if ((isWorker && lastArg.startsWith("@@")) || Files.exists(flagFile)) {
-          arguments.clear();
-          arguments.addAll(Files.readAllLines(flagFile, UTF_8));
+          return Files.readAllLines(flagFile, UTF_8);
         }
       } else {
         List<String> newArguments = new ArrayList<>();
@@ -177,12 +331,68 @@ public final class PersistentWorker<T extends WorkerComponent<?, ?, ?>> {
           }
         }
         if (!newArguments.isEmpty()) {
-          arguments.clear();
-          arguments.addAll(newArguments);
+          return newArguments;
         }
       }
+      return arguments;
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
+
+  @Nullable
+  private Path getMetricsFile(List<String> args) {
+    for (String arg : args) {
+      if (arg.startsWith(METRICS_FILE_ARG)) {
+        return fs.getPath(arg.substring(METRICS_FILE_ARG.length()));
+      }
+    }
+    return null;
+  }
+
+  private static long getGarbageCollectionMillis() {
+    long result = 0;
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      result += Math.max(0, bean.getCollectionTime());
+    }
+    return result;
+  }
+
+  private static double getFraction(List<String> args, String flag, double defaultValue) {
+    for (String arg : args) {
+      if (arg.startsWith(flag)) {
+        return Double.parseDouble(arg.substring(flag.length()));
+      }
+    }
+    return defaultValue;
+  }
+
+  private Path getOutputSpillDirectory(List<String> args) {
+    for (String arg : args) {
+      if (arg.startsWith(OUTPUT_SPILL_DIR_ARG)) {
+        return fs.getPath(arg.substring(OUTPUT_SPILL_DIR_ARG.length()));
+      }
+    }
+    return fs.getPath(System.getProperty("java.io.tmpdir"));
+  }
+
+  private static int getMaxOutputBytes(List<String> args) {
+    for (String arg : args) {
+      if (arg.startsWith(MAX_OUTPUT_BYTES_ARG)) {
+        return Integer.parseInt(arg.substring(MAX_OUTPUT_BYTES_ARG.length()));
+      }
+    }
+    return DEFAULT_MAX_OUTPUT_BYTES;
+  }
+
+  private static int getMultiplexThreads(List<String> args) {
+    for (String arg : args) {
+      if (arg.startsWith(MULTIPLEX_THREADS_ARG)) {
+        int threads = Integer.parseInt(arg.substring(MULTIPLEX_THREADS_ARG.length()));
+        checkArgument(threads >= 1, "need %s%s >= 1", MULTIPLEX_THREADS_ARG, threads);
+        return threads;
+      }
+    }
+    return Runtime.getRuntime().availableProcessors();
+  }
 }
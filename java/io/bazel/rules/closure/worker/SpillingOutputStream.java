@@ -0,0 +1,181 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.worker;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.protobuf.ByteString;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Output stream that keeps the first bytes written in memory and spills the rest to a file.
+ *
+ * <p>{@link PersistentWorker} captures the output of each request with this class, so a program
+ * that prints an enormous number of warnings can't make the worker hold all of them in memory at
+ * once. Once the limit is exceeded, everything written so far, and everything written afterwards,
+ * goes to a new file in the spill directory, and {@link #toByteString()} returns the in-memory
+ * prefix followed by a note saying where the full output can be found.
+ *
+ * <p>Only the newest {@value #MAX_SPILL_FILES} spill files in the directory are kept, so a worker
+ * that lives for days doesn't fill it up.
+ */
+final class SpillingOutputStream extends OutputStream {
+
+  static final int MAX_SPILL_FILES = 10;
+  private static final String SPILL_PREFIX = "worker-output-";
+  private static final String SPILL_SUFFIX = ".log";
+
+  private final int limit;
+  private final Path spillDirectory;
+  private final ByteString.Output head = ByteString.newOutput();
+  private long total;
+  @Nullable private Path spillFile;
+  @Nullable private OutputStream spill;
+
+  SpillingOutputStream(int limit, Path spillDirectory) {
+    checkArgument(limit > 0, "limit must be positive: %s", limit);
+    this.limit = limit;
+    this.spillDirectory = spillDirectory;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    total += len;
+    if (spill == null) {
+      int room = limit - head.size();
+      if (len <= room) {
+        head.write(b, off, len);
+        return;
+      }
+      head.write(b, off, room);
+      Files.createDirectories(spillDirectory);
+      spillFile = Files.createTempFile(spillDirectory, SPILL_PREFIX, SPILL_SUFFIX);
+      deleteOldSpillFiles(spillDirectory, spillFile);
+      spill = new BufferedOutputStream(Files.newOutputStream(spillFile));
+      head.writeTo(spill);
+      off += room;
+      len -= room;
+    }
+    spill.write(b, off, len);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (spill != null) {
+      spill.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (spill != null) {
+      spill.close();
+    }
+  }
+
+  /** Returns file holding the full output, or {@code null} if it fit in memory. */
+  @Nullable
+  Path getSpillFile() {
+    return spillFile;
+  }
+
+  /** Returns number of bytes written so far. */
+  long size() {
+    return total;
+  }
+
+  /**
+   * Returns captured output as valid UTF-8, once the stream has been closed.
+   *
+   * <p>If the output was spilled, it's cut after the last line that fit in memory, or at a
+   * character boundary if there's no line break, and a pointer to the spill file is appended.
+   */
+  ByteString toByteString() throws IOException {
+    ByteString result = head.toByteString();
+    if (spillFile == null) {
+      return result;
+    }
+    int end = result.size();
+    while (end > 0 && result.byteAt(end - 1) != '\n') {
+      end--;
+    }
+    if (end == 0) {
+      end = getCompleteLength(result);
+    }
+    String note =
+        String.format(
+            "%n[output truncated after %,d of %,d bytes; see %s]%n",
+            end, total, spillFile.toAbsolutePath());
+    return result.substring(0, end).concat(ByteString.copyFrom(note, UTF_8));
+  }
+
+  // Deletes all but the newest spill files, never deleting the one that was just created. Other
+  // requests and workers may be doing the same thing, so files can vanish while this runs.
+  private static void deleteOldSpillFiles(Path directory, Path current) throws IOException {
+    List<Path> files = new ArrayList<>();
+    Map<Path, FileTime> times = new HashMap<>();
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(directory, SPILL_PREFIX + "*" + SPILL_SUFFIX)) {
+      for (Path file : stream) {
+        if (file.equals(current)) {
+          continue;
+        }
+        try {
+          times.put(file, Files.getLastModifiedTime(file));
+          files.add(file);
+        } catch (NoSuchFileException e) {
+          // Deleted by someone else.
+        }
+      }
+    }
+    files.sort(Comparator.comparing(times::get, Comparator.reverseOrder()));
+    for (Path file : files.subList(Math.min(files.size(), MAX_SPILL_FILES - 1), files.size())) {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  // Returns length of the longest prefix that doesn't end with a partial UTF-8 character.
+  private static int getCompleteLength(ByteString bytes) {
+    int start = bytes.size() - 1;
+    while (start > 0 && (bytes.byteAt(start) & 0xC0) == 0x80) {
+      start--;
+    }
+    if (start < 0) {
+      return 0;
+    }
+    int lead = bytes.byteAt(start) & 0xFF;
+    int length = lead < 0x80 ? 1 : lead < 0xE0 ? 2 : lead < 0xF0 ? 3 : 4;
+    return start + length <= bytes.size() ? bytes.size() : start;
+  }
+}
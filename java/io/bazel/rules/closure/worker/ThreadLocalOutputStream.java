@@ -0,0 +1,66 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.worker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that routes bytes to a destination bound to the current thread.
+ *
+ * <p>This is installed as {@link System#out} and {@link System#err} by {@link PersistentWorker} so
+ * that legacy programs which print to standard i/o can run concurrently without their output being
+ * interleaved. Threads that haven't bound a destination, e.g. threads spawned by the program
+ * itself, write to the fallback stream.
+ */
+final class ThreadLocalOutputStream extends OutputStream {
+
+  private final OutputStream fallback;
+  private final ThreadLocal<OutputStream> destination = new ThreadLocal<>();
+
+  ThreadLocalOutputStream(OutputStream fallback) {
+    this.fallback = fallback;
+  }
+
+  /** Routes output from the current thread to {@code output} until {@link #unbind()}. */
+  void bind(OutputStream output) {
+    destination.set(output);
+  }
+
+  /** Restores routing of the current thread's output to the fallback stream. */
+  void unbind() {
+    destination.remove();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    get().write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    get().write(b, off, len);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    get().flush();
+  }
+
+  private OutputStream get() {
+    OutputStream result = destination.get();
+    return result == null ? fallback : result;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import io.bazel.rules.closure.BuildInfo.ClosureJsLibrary;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark comparing text and binary {@link ClosureJsLibrary} info loading.
+ *
+ * <p>Each operation loads the info file of one library that provides a few hundred namespaces,
+ * which is what {@link JsChecker} and {@link JsCompiler} do for every dep. Run it with:
+ *
+ * <pre>
+ * bazel run //javatests/com/google/javascript/jscomp:Benchmarks -- ClosureJsLibraryInfo
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClosureJsLibraryInfoBenchmark {
+
+  private static final int NAMESPACES = 200;
+
+  @Param({"false", "true"})
+  public boolean binary;
+
+  private Path dir;
+  private Path path;
+
+  @Setup
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("ClosureJsLibraryInfoBenchmark");
+    ClosureJsLibrary.Builder info =
+        ClosureJsLibrary.newBuilder()
+            .setLabel("//third_party/javascript/lib:lib")
+            .addSuppress("JSC_MISSING_SEMICOLON")
+            .addSuppress("JSC_UNKNOWN_EXPR_TYPE");
+    for (int i = 0; i < NAMESPACES; i++) {
+      info.addNamespace(String.format("goog:third_party.lib.Namespace%d", i));
+      info.addModule(String.format("/third_party/javascript/lib/file%d.js", i));
+    }
+    path = dir.resolve("lib.pbtxt");
+    JsCheckerHelper.writeClosureJsLibraryInfo(path, info.build(), binary);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  @Benchmark
+  public ClosureJsLibrary load() throws IOException {
+    return JsCheckerHelper.loadClosureJsLibraryInfo(path);
+  }
+}
@@ -18,6 +18,8 @@ package com.google.javascript.jscomp;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.javascript.jscomp.Diagnostics.Disposition;
+import com.google.javascript.jscomp.lint.CheckJSDocStyle;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -30,4 +32,30 @@ public class DiagnosticsTest {
   public void testClassLoads() throws Exception {
     assertThat(Diagnostics.IGNORE_FOR_SYNTHETIC).isNotNull();
   }
+
+  @Test
+  public void conventionLinterCheck_isOnlyReportedForItsConvention() throws Exception {
+    DiagnosticType type = CheckJSDocStyle.MUST_BE_PRIVATE;
+    assertThat(Diagnostics.getDisposition(JsCheckerConvention.CLOSURE, type))
+        .isNotEqualTo(Disposition.OTHER_CONVENTION);
+    assertThat(Diagnostics.getDisposition(JsCheckerConvention.GOOGLE, type))
+        .isEqualTo(Disposition.OTHER_CONVENTION);
+    assertThat(Diagnostics.getDisposition(JsCheckerConvention.NONE, type))
+        .isEqualTo(Disposition.OTHER_CONVENTION);
+  }
+
+  @Test
+  public void alwaysIgnored_isIgnoredForEveryConvention() throws Exception {
+    for (JsCheckerConvention convention : JsCheckerConvention.values()) {
+      assertThat(Diagnostics.getDisposition(convention, ProcessDefines.UNKNOWN_DEFINE_WARNING))
+          .isEqualTo(Disposition.IGNORE);
+    }
+  }
+
+  @Test
+  public void unknownType_isChecked() throws Exception {
+    DiagnosticType type = DiagnosticType.error("JSC_NOT_IN_ANY_GROUP", "oh no");
+    assertThat(Diagnostics.getDisposition(JsCheckerConvention.CLOSURE, type))
+        .isEqualTo(Disposition.CHECK);
+  }
 }
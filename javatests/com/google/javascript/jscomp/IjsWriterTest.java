@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.javascript.rhino.Node;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link IjsWriter}. */
+@RunWith(JUnit4.class)
+public class IjsWriterTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+  private final Compiler compiler = new Compiler();
+
+  @After
+  public void shutdown() throws Exception {
+    executor.shutdownNow();
+  }
+
+  private Node parse(String... sources) {
+    List<SourceFile> inputs = new ArrayList<>();
+    for (int i = 0; i < sources.length; i++) {
+      inputs.add(SourceFile.fromCode("file" + i + ".js", sources[i]));
+    }
+    compiler.disableThreads();
+    compiler.init(ImmutableList.<SourceFile>of(), inputs, JsChecker.createOptions());
+    compiler.parseInputs();
+    return compiler.getRoot().getLastChild();
+  }
+
+  private String write(Node jsRoot, int threads, List<IjsWriter.Chunk> chunks) throws Exception {
+    StringWriter out = new StringWriter();
+    try (IjsWriter writer = new IjsWriter(compiler, out, executor, threads, chunks::add)) {
+      for (Node script = jsRoot.getFirstChild(); script != null; script = script.getNext()) {
+        writer.add(script);
+      }
+    }
+    return out.toString();
+  }
+
+  @Test
+  public void output_isSameAsToSource() throws Exception {
+    Node jsRoot =
+        parse(
+            "/** @license MIT */\nvar a = 1;",
+            "var b = function() {}",
+            "/** @license MIT */\nvar c = 3;",
+            "/** @license BSD */\nvar d = 4;");
+    String expected = compiler.toSource();
+    assertThat(write(jsRoot, 1, new ArrayList<>())).isEqualTo(expected);
+    assertThat(write(jsRoot, 4, new ArrayList<>())).isEqualTo(expected);
+  }
+
+  @Test
+  public void chunks_areReportedInOrder() throws Exception {
+    Node jsRoot = parse("var a;", "var b;", "var c;");
+    List<IjsWriter.Chunk> chunks = new ArrayList<>();
+    write(jsRoot, 2, chunks);
+    assertThat(chunks).hasSize(3);
+    assertThat(chunks.get(0).sourceName).isEqualTo("file0.js");
+    assertThat(chunks.get(2).sourceName).isEqualTo("file2.js");
+  }
+
+  @Test
+  public void reusedChunk_isWrittenInPlace() throws Exception {
+    Node jsRoot = parse("var a;", "var c;");
+    StringWriter out = new StringWriter();
+    List<IjsWriter.Chunk> chunks = new ArrayList<>();
+    try (IjsWriter writer = new IjsWriter(compiler, out, executor, 2, chunks::add)) {
+      writer.add(jsRoot.getFirstChild());
+      writer.add(new IjsWriter.Chunk("b.js", null, "var b;\n"));
+      writer.add(jsRoot.getLastChild());
+    }
+    assertThat(chunks.get(1).sourceName).isEqualTo("b.js");
+    assertThat(out.toString())
+        .isEqualTo(chunks.get(0).code + "var b;\n" + chunks.get(2).code);
+  }
+}
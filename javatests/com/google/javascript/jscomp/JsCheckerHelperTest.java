@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.jimfs.Jimfs;
+import com.google.common.collect.ImmutableList;
+import io.bazel.rules.closure.BuildInfo.ClosureJsLibrary;
+import io.bazel.rules.closure.BuildInfo.Diagnostic;
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link JsCheckerHelper}. */
+@RunWith(JUnit4.class)
+public class JsCheckerHelperTest {
+
+  private static final ClosureJsLibrary INFO =
+      ClosureJsLibrary.newBuilder()
+          .setLabel("//foo:bar")
+          .addNamespace("goog:foo.bar")
+          .addModule("/foo/bar.js")
+          .addSuppress("JSC_MISSING_SEMICOLON")
+          .build();
+
+  private final FileSystem fs = Jimfs.newFileSystem();
+
+  @After
+  public void closeFileSystem() throws Exception {
+    fs.close();
+  }
+
+  @Test
+  public void textFormat_roundTrips() throws Exception {
+    Path path = fs.getPath("/bar.pbtxt");
+    JsCheckerHelper.writeClosureJsLibraryInfo(path, INFO, false);
+    assertThat(new String(Files.readAllBytes(path), UTF_8)).startsWith("label: ");
+    assertThat(JsCheckerHelper.loadClosureJsLibraryInfo(path)).isEqualTo(INFO);
+  }
+
+  @Test
+  public void binaryFormat_roundTrips() throws Exception {
+    Path path = fs.getPath("/bar.pbtxt");
+    JsCheckerHelper.writeClosureJsLibraryInfo(path, INFO, true);
+    assertThat(JsCheckerHelper.loadClosureJsLibraryInfo(path)).isEqualTo(INFO);
+  }
+
+  @Test
+  public void emptyInfo_roundTripsInBothFormats() throws Exception {
+    Path path = fs.getPath("/empty.pbtxt");
+    JsCheckerHelper.writeClosureJsLibraryInfo(path, ClosureJsLibrary.getDefaultInstance(), true);
+    assertThat(JsCheckerHelper.loadClosureJsLibraryInfo(path))
+        .isEqualTo(ClosureJsLibrary.getDefaultInstance());
+    JsCheckerHelper.writeClosureJsLibraryInfo(path, ClosureJsLibrary.getDefaultInstance(), false);
+    assertThat(JsCheckerHelper.loadClosureJsLibraryInfo(path))
+        .isEqualTo(ClosureJsLibrary.getDefaultInstance());
+  }
+
+  @Test
+  public void textWhoseFirstByteLooksLikeLength_isStillParsedAsText() throws Exception {
+    Path path = fs.getPath("/tricky.pbtxt");
+    // 'l' is 108, so the leading byte of a 109 byte text file is a plausible varint length.
+    StringBuilder text = new StringBuilder("label: \"//a:b\"\nnamespace: \"");
+    while (text.length() < 107) {
+      text.append('x');
+    }
+    text.append("\"\n");
+    Files.write(path, text.toString().getBytes(UTF_8));
+    assertThat(Files.size(path)).isEqualTo(109L);
+    assertThat(JsCheckerHelper.loadClosureJsLibraryInfo(path).getLabel()).isEqualTo("//a:b");
+  }
+
+  @Test
+  public void diagnostics_areWrittenAsDelimitedStream() throws Exception {
+    Path path = fs.getPath("/errors.pb");
+    Diagnostic first =
+        Diagnostic.newBuilder()
+            .setType("JSC_MISSING_REQUIRE")
+            .setSource("foo/bar.js")
+            .setLine(3)
+            .setColumn(4)
+            .setLabel("//foo:bar")
+            .addSuppress("JSC_MISSING_REQUIRE")
+            .addSuppress("missingRequire")
+            .build();
+    Diagnostic second =
+        Diagnostic.newBuilder().setType("JSC_BAD").setLevel(Diagnostic.Level.WARNING).build();
+    JsCheckerHelper.writeDiagnostics(path, ImmutableList.of(first, second));
+    try (InputStream input = Files.newInputStream(path)) {
+      assertThat(Diagnostic.parseDelimitedFrom(input)).isEqualTo(first);
+      assertThat(Diagnostic.parseDelimitedFrom(input)).isEqualTo(second);
+      assertThat(Diagnostic.parseDelimitedFrom(input)).isNull();
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link JsCheckerMemo}. */
+@RunWith(JUnit4.class)
+public class JsCheckerMemoTest {
+
+  private static final DiagnosticType FOO = DiagnosticType.error("JSC_FOO", "foo {0}");
+  private static final HashCode FINGERPRINT = HashCode.fromInt(1);
+  private static final HashCode LAYOUT = HashCode.fromInt(2);
+
+  private static ImmutableMap<String, HashCode> digests(int a, int b) {
+    return ImmutableMap.of("a.js", HashCode.fromInt(a), "b.js", HashCode.fromInt(b));
+  }
+
+  /** Runs a session that checks every source, reporting one error in each. */
+  private static JsCheckerMemo firstRun() {
+    JsCheckerMemo.Session session = new JsCheckerMemo.Session(FINGERPRINT, digests(1, 2), null);
+    session.plan(LAYOUT);
+    session.startRecording();
+    session.reported(CheckLevel.ERROR, JSError.make("a.js", 1, 2, FOO, "a"));
+    session.reported(CheckLevel.ERROR, JSError.make("b.js", 3, 4, FOO, "b"));
+    session.suppressedByUser(JSError.make("a.js", 5, 6, FOO, "hidden"));
+    session.stopRecording();
+    session.printed(new IjsWriter.Chunk("a.js", null, "var a;\n"));
+    session.printed(new IjsWriter.Chunk("b.js", null, "var b;\n"));
+    return session.finish();
+  }
+
+  @Test
+  public void noPreviousMemo_checksEverything() throws Exception {
+    JsCheckerMemo.Session session = new JsCheckerMemo.Session(FINGERPRINT, digests(1, 2), null);
+    session.plan(LAYOUT);
+    assertThat(session.isFull()).isTrue();
+    assertThat(session.getReused()).isEmpty();
+  }
+
+  @Test
+  public void oneSourceChanged_reusesTheOther() throws Exception {
+    JsCheckerMemo.Session session =
+        new JsCheckerMemo.Session(FINGERPRINT, digests(1, 3), firstRun());
+    session.plan(LAYOUT);
+    assertThat(session.isFull()).isFalse();
+    assertThat(session.isRechecked("a.js")).isFalse();
+    assertThat(session.isRechecked("b.js")).isTrue();
+    JsCheckerMemo.Script reused = session.getReused().get(0);
+    assertThat(reused.reports.get(0).description).isEqualTo("foo a");
+    assertThat(reused.userSuppressed).contains(FOO);
+    assertThat(session.getReusedInterface("a.js").code).isEqualTo("var a;\n");
+    session.printed(new IjsWriter.Chunk("b.js", null, "var b2;\n"));
+    JsCheckerMemo memo = session.finish();
+    assertThat(memo.scripts.get("b.js").ijs.code).isEqualTo("var b2;\n");
+    assertThat(memo.scripts.get("a.js").reports).hasSize(1);
+    assertThat(memo.scripts.get("b.js").reports).isEmpty();
+  }
+
+  @Test
+  public void differentFlagsOrLayout_checksEverything() throws Exception {
+    JsCheckerMemo previous = firstRun();
+    JsCheckerMemo.Session session =
+        new JsCheckerMemo.Session(HashCode.fromInt(9), digests(1, 2), previous);
+    session.plan(LAYOUT);
+    assertThat(session.isFull()).isTrue();
+    session = new JsCheckerMemo.Session(FINGERPRINT, digests(1, 2), previous);
+    session.plan(HashCode.fromInt(9));
+    assertThat(session.isFull()).isTrue();
+  }
+
+  @Test
+  public void reportWithoutSource_producesNoMemo() throws Exception {
+    JsCheckerMemo.Session session = new JsCheckerMemo.Session(FINGERPRINT, digests(1, 2), null);
+    session.plan(LAYOUT);
+    session.startRecording();
+    session.reported(CheckLevel.ERROR, JSError.make(FOO, "nowhere"));
+    session.stopRecording();
+    assertThat(session.finish()).isNull();
+  }
+
+  @Test
+  public void reportOutsideRecording_isIgnored() throws Exception {
+    JsCheckerMemo.Session session = new JsCheckerMemo.Session(FINGERPRINT, digests(1, 2), null);
+    session.plan(LAYOUT);
+    session.reported(CheckLevel.ERROR, JSError.make(FOO, "nowhere"));
+    assertThat(session.finish().scripts.get("a.js").reports).isEmpty();
+  }
+
+  @Test
+  public void replayedError_matchesOriginal() throws Exception {
+    JSError error = firstRun().scripts.get("b.js").reports.get(0).toError();
+    assertThat(error.sourceName).isEqualTo("b.js");
+    assertThat(error.lineNumber).isEqualTo(3);
+    assertThat(error.getCharno()).isEqualTo(4);
+    assertThat(error.getType()).isEqualTo(FOO);
+    assertThat(error.description).isEqualTo("foo b");
+  }
+
+  @Test
+  public void fingerprint_ignoresSourceDigests() throws Exception {
+    Path src = Paths.get("a.js");
+    Path dep = Paths.get("dep.pbtxt");
+    ImmutableList<String> args = ImmutableList.of("--src", "a.js");
+    ImmutableSet<Path> sources = ImmutableSet.of(src);
+    HashCode base =
+        JsCheckerMemo.fingerprint(
+            args, ImmutableMap.of(src, HashCode.fromInt(1), dep, HashCode.fromInt(2)), sources);
+    assertThat(
+            JsCheckerMemo.fingerprint(
+                args,
+                ImmutableMap.of(src, HashCode.fromInt(3), dep, HashCode.fromInt(2)),
+                sources))
+        .isEqualTo(base);
+    assertThat(
+            JsCheckerMemo.fingerprint(
+                args,
+                ImmutableMap.of(src, HashCode.fromInt(1), dep, HashCode.fromInt(4)),
+                sources))
+        .isNotEqualTo(base);
+    assertThat(
+            JsCheckerMemo.fingerprint(
+                ImmutableList.of("--src", "a.js", "--testonly"),
+                ImmutableMap.of(src, HashCode.fromInt(1), dep, HashCode.fromInt(2)),
+                sources))
+        .isNotEqualTo(base);
+  }
+}
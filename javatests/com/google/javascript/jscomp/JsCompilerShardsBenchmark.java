@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableMap;
+import io.bazel.rules.closure.BuildInfo.ClosureJsLibrary;
+import io.bazel.rules.closure.worker.InputCache;
+import io.bazel.rules.closure.worker.Metrics;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for {@link JsCompilerShards}.
+ *
+ * <p>This compiles a synthetic program of two thousand ES2015 sources to ES5 in WHITESPACE_ONLY
+ * mode, with one compiler and with four shards running concurrently. Run it with:
+ *
+ * <pre>
+ * bazel run //javatests/com/google/javascript/jscomp:Benchmarks -- JsCompilerShards
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JsCompilerShardsBenchmark {
+
+  private static final int SOURCES = 2000;
+  private static final int SHARDS = 4;
+
+  private final List<String> args = new ArrayList<>();
+  private Path tmp;
+  private ExecutorService executor;
+  private JsCompiler compiler;
+
+  @Setup
+  public void setUp() throws IOException {
+    tmp = Files.createTempDirectory("JsCompilerShardsBenchmark");
+    executor = Executors.newCachedThreadPool();
+    compiler =
+        new JsCompiler(
+            new InputCache<>(
+                CacheBuilder.newBuilder()
+                    .build(
+                        CacheLoader.from(
+                            (InputCache.Key key) -> ClosureJsLibrary.getDefaultInstance())),
+                ImmutableMap.of(),
+                new Metrics()),
+            executor,
+            new Metrics());
+    args.add("--compilation_level");
+    args.add("WHITESPACE_ONLY");
+    args.add("--dependency_mode");
+    args.add("NONE");
+    args.add("--language_in");
+    args.add("ECMASCRIPT_2018");
+    args.add("--language_out");
+    args.add("ECMASCRIPT5");
+    args.add("--js_output_file");
+    args.add(tmp.resolve("out.js").toString());
+    args.add("--create_source_map");
+    args.add(tmp.resolve("out.js.map").toString());
+    for (int i = 0; i < SOURCES; i++) {
+      Path source = tmp.resolve("file" + i + ".js");
+      StringBuilder code = new StringBuilder();
+      code.append(String.format("class Class%d {%n", i));
+      for (int j = 0; j < 20; j++) {
+        code.append(
+            String.format(
+                "  method%d(items) { return items.map((x) => `${x}:%d`).filter((s) => s); }%n",
+                j, j));
+      }
+      code.append(String.format("}%nconst instance%d = new Class%d();%n", i, i));
+      Files.write(source, code.toString().getBytes(UTF_8));
+      args.add(source.toString());
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    executor.shutdown();
+    for (Path path : Files.newDirectoryStream(tmp)) {
+      Files.delete(path);
+    }
+    Files.delete(tmp);
+  }
+
+  @Benchmark
+  public int oneCompiler() {
+    return compiler.apply(args);
+  }
+
+  @Benchmark
+  public int shards() {
+    List<String> sharded = new ArrayList<>(args);
+    sharded.add("--shards");
+    sharded.add(String.valueOf(SHARDS));
+    return compiler.apply(sharded);
+  }
+}
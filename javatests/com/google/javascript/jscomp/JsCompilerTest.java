@@ -16,7 +16,30 @@
 
 package com.google.javascript.jscomp;
 
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.MoreFiles;
 import com.google.common.testing.ClassSanityTester;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.debugging.sourcemap.SourceMapConsumerV3;
+import com.google.debugging.sourcemap.proto.Mapping.OriginalMapping;
+import io.bazel.rules.closure.BuildInfo.ClosureJsLibrary;
+import io.bazel.rules.closure.worker.InputCache;
+import io.bazel.rules.closure.worker.Metrics;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -25,8 +48,200 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class JsCompilerTest {
 
+  private Path tmp;
+  private ExecutorService executor;
+
+  @Before
+  public void createTempDirectory() throws Exception {
+    tmp = Files.createTempDirectory("JsCompilerTest");
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @After
+  public void deleteTempDirectory() throws Exception {
+    executor.shutdownNow();
+    MoreFiles.deleteRecursively(tmp);
+  }
+
   @Test
   public void testNulls() throws Exception {
-    new ClassSanityTester().testNulls(JsCompiler.class);
+    new ClassSanityTester()
+        .setDefault(
+            InputCache.class,
+            new InputCache<>(
+                CacheBuilder.newBuilder()
+                    .build(
+                        CacheLoader.from(
+                            (InputCache.Key key) -> ClosureJsLibrary.getDefaultInstance())),
+                ImmutableMap.of(),
+                new Metrics()))
+        .setDefault(ExecutorService.class, MoreExecutors.newDirectExecutorService())
+        .setDefault(Metrics.class, new Metrics())
+        .testNulls(JsCompiler.class);
+  }
+
+  @Test
+  public void whitespaceOnlyWithoutDependencySorting_isShardable() throws Exception {
+    assertThat(
+            JsCompilerShards.isShardable(
+                ImmutableList.of(
+                    "--compilation_level",
+                    "WHITESPACE_ONLY",
+                    "--dependency_mode=NONE",
+                    "--language_in=ECMASCRIPT_2018",
+                    "--language_out",
+                    "ECMASCRIPT_2018",
+                    "a.js")))
+        .isTrue();
+  }
+
+  @Test
+  public void transpilingBuilds_areNotShardable() throws Exception {
+    assertThat(
+            JsCompilerShards.isShardable(
+                ImmutableList.of(
+                    "--compilation_level",
+                    "WHITESPACE_ONLY",
+                    "--dependency_mode",
+                    "NONE",
+                    "--language_in",
+                    "ECMASCRIPT_2018",
+                    "--language_out",
+                    "ECMASCRIPT5")))
+        .isFalse();
+    assertThat(
+            JsCompilerShards.isShardable(
+                ImmutableList.of(
+                    "--compilation_level", "WHITESPACE_ONLY", "--dependency_mode", "NONE")))
+        .isFalse();
+  }
+
+  @Test
+  public void wholeProgramBuilds_areNotShardable() throws Exception {
+    assertThat(
+            JsCompilerShards.isShardable(
+                ImmutableList.of("--compilation_level", "SIMPLE", "--dependency_mode", "NONE")))
+        .isFalse();
+    assertThat(
+            JsCompilerShards.isShardable(
+                ImmutableList.of(
+                    "--compilation_level", "WHITESPACE_ONLY", "--dependency_mode", "PRUNE")))
+        .isFalse();
+    assertThat(
+            JsCompilerShards.isShardable(
+                ImmutableList.of(
+                    "--compilation_level",
+                    "WHITESPACE_ONLY",
+                    "--dependency_mode",
+                    "NONE",
+                    "--output_wrapper=(function(){%output%})()")))
+        .isFalse();
+  }
+
+  @Test
+  public void countSources_skipsFlagValues() throws Exception {
+    assertThat(
+            JsCompilerShards.countSources(
+                ImmutableList.of(
+                    "--compilation_level",
+                    "WHITESPACE_ONLY",
+                    "--js=a.js",
+                    "--jszip",
+                    "b.zip",
+                    "--debug",
+                    "--externs",
+                    "e.js",
+                    "c.js",
+                    "d.js")))
+        .isEqualTo(4);
+  }
+
+  @Test
+  public void shards_writeSameCodeAsOneCompiler_andMapLinesBackToOriginals() throws Exception {
+    Path a = write("a.js", "var a = 1;\nfunction f() {\n  return a;\n}\n");
+    Path b = write("b.js", "var b = 2;\n");
+    Path c = write("c.js", "var c = 3;\nvar d = 4;\n");
+    List<String> args =
+        new ArrayList<>(
+            Arrays.asList(
+                "--compilation_level", "WHITESPACE_ONLY",
+                "--dependency_mode", "NONE",
+                "--language_in", "ECMASCRIPT5",
+                "--language_out", "ECMASCRIPT5",
+                "--emit_use_strict=false",
+                "--formatting", "PRETTY_PRINT"));
+    args.add(a.toString());
+    args.add(b.toString());
+    args.add(c.toString());
+
+    List<String> oneCompiler = compile(args, 1);
+    List<String> twoShards = compile(args, 2);
+
+    assertThat(twoShards).containsExactlyElementsIn(oneCompiler).inOrder();
+    SourceMapConsumerV3 sourceMap = new SourceMapConsumerV3();
+    sourceMap.parse(new String(Files.readAllBytes(tmp.resolve("out-2.js.map")), UTF_8));
+    assertMapsTo(sourceMap, twoShards.indexOf("var a = 1;"), "a.js", 1);
+    assertMapsTo(sourceMap, twoShards.indexOf("var b = 2;"), "b.js", 1);
+    assertMapsTo(sourceMap, twoShards.indexOf("var d = 4;"), "c.js", 2);
+  }
+
+  @Test
+  public void shards_transpilingToEs5_writeSameCodeAsOneCompiler() throws Exception {
+    Path a = write("a.js", "class A {\n  constructor() {\n    this.x = [...arguments];\n  }\n}\n");
+    Path b = write("b.js", "class B extends A {}\nconst m = new Map();\n");
+    Path c = write("c.js", "for (const x of [1, 2]) {\n  m.set(x, () => x);\n}\n");
+    List<String> args =
+        new ArrayList<>(
+            Arrays.asList(
+                "--compilation_level", "WHITESPACE_ONLY",
+                "--dependency_mode", "NONE",
+                "--language_in", "ECMASCRIPT_2018",
+                "--language_out", "ECMASCRIPT5",
+                "--formatting", "PRETTY_PRINT"));
+    args.add(a.toString());
+    args.add(b.toString());
+    args.add(c.toString());
+
+    assertThat(compile(args, 2)).containsExactlyElementsIn(compile(args, 1)).inOrder();
+  }
+
+  private Path write(String name, String code) throws Exception {
+    Path path = tmp.resolve(name);
+    Files.write(path, code.getBytes(UTF_8));
+    return path;
+  }
+
+  /** Compiles {@code args} into {@code out-<shards>.js}, returning its lines. */
+  private List<String> compile(List<String> args, int shards) throws Exception {
+    Path output = tmp.resolve("out-" + shards + ".js");
+    List<String> shardArgs = new ArrayList<>(args);
+    shardArgs.add("--js_output_file");
+    shardArgs.add(output.toString());
+    shardArgs.add("--create_source_map");
+    shardArgs.add(output + ".map");
+    shardArgs.add("--shards");
+    shardArgs.add(String.valueOf(shards));
+    JsCompiler compiler =
+        new JsCompiler(
+            new InputCache<>(
+                CacheBuilder.newBuilder()
+                    .build(
+                        CacheLoader.from(
+                            (InputCache.Key key) -> ClosureJsLibrary.getDefaultInstance())),
+                ImmutableMap.of(),
+                new Metrics()),
+            executor,
+            new Metrics());
+    assertThat(compiler.apply(shardArgs)).isEqualTo(0);
+    return Files.readAllLines(output, UTF_8);
+  }
+
+  private static void assertMapsTo(
+      SourceMapConsumerV3 sourceMap, int line, String file, int originalLine) {
+    assertThat(line).isAtLeast(0);
+    // Lines and columns are one-based.
+    OriginalMapping mapping = sourceMap.getMappingForLine(line + 1, 1);
+    assertThat(mapping.getOriginalFile()).endsWith(file);
+    assertThat(mapping.getLineNumber()).isEqualTo(originalLine);
   }
 }
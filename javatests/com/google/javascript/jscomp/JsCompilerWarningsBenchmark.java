@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark for {@link JsCompilerWarnings#level(JSError)}.
+ *
+ * <p>This simulates a {@link JsCompiler} action for a binary with a few thousand libraries, some
+ * of them legacy, many of them with suppress codes, that reports diagnostics in all of them. Run it
+ * with:
+ *
+ * <pre>
+ * bazel run //javatests/com/google/javascript/jscomp:Benchmarks -- JsCompilerWarnings
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsCompilerWarningsBenchmark {
+
+  private static final int LIBRARIES = 3000;
+  private static final int FILES_PER_LIBRARY = 10;
+  private static final int ERRORS = 1024;
+  private static final int DIAGNOSTIC_TYPES = 8;
+  private static final ImmutableList<String> ROOTS =
+      ImmutableList.of("bazel-out/k8-fastbuild/bin", "bazel-out/k8-fastbuild/genfiles");
+
+  private JsCompilerWarnings warnings;
+  private JSError[] errors;
+
+  @Setup
+  public void setUp() {
+    List<DiagnosticType> types = new ArrayList<>();
+    for (int i = 0; i < DIAGNOSTIC_TYPES; i++) {
+      types.add(DiagnosticType.error("JSC_BENCHMARK_" + i, "{0}"));
+    }
+    Set<String> legacyModules = new HashSet<>();
+    Multimap<String, DiagnosticType> suppressions = HashMultimap.create();
+    for (int i = 0; i < LIBRARIES; i++) {
+      for (int j = 0; j < FILES_PER_LIBRARY; j++) {
+        String module = String.format("/third_party/lib%d/file%d.js", i, j);
+        if (i % 10 == 0) {
+          legacyModules.add(module);
+        } else if (i % 3 == 0) {
+          suppressions.put(module, types.get(i % types.size()));
+          suppressions.put(module, types.get((i + 1) % types.size()));
+        }
+      }
+    }
+    warnings =
+        new JsCompilerWarnings(
+            new ModuleRoots(ROOTS),
+            legacyModules,
+            suppressions,
+            ImmutableSet.of(types.get(types.size() - 1)));
+    errors = new JSError[ERRORS];
+    for (int i = 0; i < ERRORS; i++) {
+      int library = (i * 7919) % LIBRARIES;
+      String sourceName =
+          String.format(
+              "%s/third_party/lib%d/file%d.js",
+              ROOTS.get(i % ROOTS.size()), library, i % FILES_PER_LIBRARY);
+      errors[i] = JSError.make(sourceName, i, 0, types.get(i % types.size()), "oh no");
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ERRORS)
+  public void level(Blackhole blackhole) {
+    for (JSError error : errors) {
+      blackhole.consume(warnings.level(error));
+    }
+  }
+}
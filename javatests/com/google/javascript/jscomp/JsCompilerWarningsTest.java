@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link JsCompilerWarnings}. */
+@RunWith(JUnit4.class)
+public class JsCompilerWarningsTest {
+
+  private static final DiagnosticType FOO = DiagnosticType.error("JSC_FOO", "foo");
+  private static final DiagnosticType BAR = DiagnosticType.error("JSC_BAR", "bar");
+  private static final DiagnosticType GLOBAL = DiagnosticType.error("JSC_GLOBAL", "global");
+
+  private final JsCompilerWarnings warnings =
+      new JsCompilerWarnings(
+          new ModuleRoots(ImmutableList.of("bazel-out/k8-fastbuild/bin")),
+          ImmutableSet.of("/legacy.js"),
+          ImmutableMultimap.of("/a.js", FOO, "/b.js", BAR),
+          ImmutableSet.of(GLOBAL));
+
+  private CheckLevel level(String sourceName, DiagnosticType type) {
+    return warnings.level(JSError.make(sourceName, 1, 0, type));
+  }
+
+  @Test
+  public void suppressedInLibrary_isOff() throws Exception {
+    assertThat(level("a.js", FOO)).isEqualTo(CheckLevel.OFF);
+    assertThat(level("bazel-out/k8-fastbuild/bin/b.js", BAR)).isEqualTo(CheckLevel.OFF);
+  }
+
+  @Test
+  public void suppressedInOtherLibrary_isError() throws Exception {
+    assertThat(level("a.js", BAR)).isEqualTo(CheckLevel.ERROR);
+    assertThat(level("b.js", FOO)).isEqualTo(CheckLevel.ERROR);
+    assertThat(level("c.js", FOO)).isEqualTo(CheckLevel.ERROR);
+  }
+
+  @Test
+  public void legacyModule_isWarningOrOff() throws Exception {
+    assertThat(level("legacy.js", FOO)).isEqualTo(CheckLevel.WARNING);
+    assertThat(level("legacy.js", TypeCheck.UNKNOWN_EXPR_TYPE)).isEqualTo(CheckLevel.OFF);
+  }
+
+  @Test
+  public void globalSuppression_isOffEverywhere() throws Exception {
+    assertThat(level("a.js", GLOBAL)).isEqualTo(CheckLevel.OFF);
+    assertThat(level("legacy.js", GLOBAL)).isEqualTo(CheckLevel.OFF);
+  }
+
+  @Test
+  public void syntheticCode_isWarning() throws Exception {
+    assertThat(level(" [synthetic:1] ", FOO)).isEqualTo(CheckLevel.WARNING);
+  }
+
+  @Test
+  public void repeatedLookups_giveSameAnswer() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      assertThat(level("a.js", FOO)).isEqualTo(CheckLevel.OFF);
+      assertThat(level("a.js", BAR)).isEqualTo(CheckLevel.ERROR);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ModuleRoots}. */
+@RunWith(JUnit4.class)
+public class ModuleRootsTest {
+
+  private final ModuleRoots roots =
+      new ModuleRoots(
+          ImmutableList.of(
+              "bazel-out/k8-fastbuild/bin/external/foo",
+              "bazel-out/k8-fastbuild/bin",
+              "external/foo",
+              "bazel-out/k8-fastbuild/bin/external/bar"));
+
+  @Test
+  public void noMatchingRoot_keepsPath() throws Exception {
+    assertThat(roots.toModuleName("a/b.js")).isEqualTo(Optional.of("/a/b.js"));
+  }
+
+  @Test
+  public void matchingRoot_isStripped() throws Exception {
+    assertThat(roots.toModuleName("external/foo/a.js")).isEqualTo(Optional.of("/a.js"));
+    assertThat(roots.toModuleName("bazel-out/k8-fastbuild/bin/external/foo/a.js"))
+        .isEqualTo(Optional.of("/a.js"));
+  }
+
+  @Test
+  public void severalMatchingRoots_firstOneWins() throws Exception {
+    assertThat(roots.toModuleName("bazel-out/k8-fastbuild/bin/external/bar/a.js"))
+        .isEqualTo(Optional.of("/external/bar/a.js"));
+  }
+
+  @Test
+  public void rootMustEndAtDirectoryBoundary() throws Exception {
+    assertThat(roots.toModuleName("external/foobar/a.js"))
+        .isEqualTo(Optional.of("/external/foobar/a.js"));
+  }
+
+  @Test
+  public void zipEntry_usesZipName() throws Exception {
+    assertThat(roots.toModuleName("external/foo/a.zip!/b.js")).isEqualTo(Optional.of("/a.zip"));
+  }
+
+  @Test
+  public void notJavaScript_isAbsent() throws Exception {
+    assertThat(roots.toModuleName("external/foo/a.css")).isEqualTo(Optional.absent());
+  }
+
+  @Test
+  public void repeatedLookup_returnsSameResult() throws Exception {
+    assertThat(roots.toModuleName("external/foo/a.js"))
+        .isSameAs(roots.toModuleName("external/foo/a.js"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void absolutePath_throws() throws Exception {
+    roots.toModuleName("/a.js");
+  }
+}
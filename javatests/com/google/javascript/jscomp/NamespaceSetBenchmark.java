@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark for {@link NamespaceSet}.
+ *
+ * <p>This looks up ten thousand requires among a hundred thousand namespaces spread over 32 deps,
+ * comparing the hash set JsChecker used to fill on every action with probing the compact sets a
+ * worker keeps. Run it with:
+ *
+ * <pre>
+ * bazel run //javatests/com/google/javascript/jscomp:Benchmarks -- NamespaceSet
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamespaceSetBenchmark {
+
+  private static final int DEPS = 32;
+  private static final int NAMESPACES = 100000;
+  private static final int REQUIRES = 10000;
+
+  private final List<List<String>> deps = new ArrayList<>();
+  private final List<NamespaceSet> sets = new ArrayList<>();
+  private final String[] requires = new String[REQUIRES];
+
+  @Setup
+  public void setUp() {
+    for (int i = 0; i < DEPS; i++) {
+      deps.add(new ArrayList<String>());
+    }
+    for (int i = 0; i < NAMESPACES; i++) {
+      deps.get(i % DEPS).add(String.format("goog.pkg%d.sub%d.Class%d", i % 97, i % 13, i));
+    }
+    for (List<String> dep : deps) {
+      sets.add(NamespaceSet.copyOf(dep));
+    }
+    for (int i = 0; i < REQUIRES; i++) {
+      int n = (i * 7919) % NAMESPACES;
+      requires[i] = String.format("goog.pkg%d.sub%d.Class%d", n % 97, n % 13, n);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(REQUIRES)
+  public void hashSet(Blackhole blackhole) {
+    Set<String> provided = new HashSet<>(9000);
+    for (List<String> dep : deps) {
+      provided.addAll(dep);
+    }
+    for (String require : requires) {
+      blackhole.consume(provided.contains(require));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(REQUIRES)
+  public void namespaceSets(Blackhole blackhole) {
+    for (String require : requires) {
+      boolean found = false;
+      for (NamespaceSet set : sets) {
+        if (set.contains(require)) {
+          found = true;
+          break;
+        }
+      }
+      blackhole.consume(found);
+    }
+  }
+}
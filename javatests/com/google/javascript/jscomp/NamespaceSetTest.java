@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link NamespaceSet}. */
+@RunWith(JUnit4.class)
+public class NamespaceSetTest {
+
+  @Test
+  public void empty_containsNothing() throws Exception {
+    NamespaceSet set = NamespaceSet.copyOf(ImmutableList.<String>of());
+    assertThat(set.size()).isEqualTo(0);
+    assertThat(set.contains("")).isFalse();
+    assertThat(set.contains("goog")).isFalse();
+  }
+
+  @Test
+  public void prefixesAndExtensions_areDistinct() throws Exception {
+    NamespaceSet set = NamespaceSet.copyOf(ImmutableList.of("goog.ui", "goog.ui.editor.Field"));
+    assertThat(set.contains("goog.ui")).isTrue();
+    assertThat(set.contains("goog.ui.editor.Field")).isTrue();
+    assertThat(set.contains("goog")).isFalse();
+    assertThat(set.contains("goog.ui.editor")).isFalse();
+    assertThat(set.contains("goog.ui.editor.Field2")).isFalse();
+  }
+
+  @Test
+  public void duplicates_areStoredOnce() throws Exception {
+    NamespaceSet set = NamespaceSet.copyOf(ImmutableList.of("a.b", "a.c", "a.b"));
+    assertThat(set.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void manyBlocks_everyNamespaceIsFound() throws Exception {
+    List<String> namespaces = new ArrayList<>();
+    for (int i = 0; i < 1000; i += 2) {
+      namespaces.add("goog.pkg" + i % 7 + ".Class" + i);
+    }
+    NamespaceSet set = NamespaceSet.copyOf(namespaces);
+    assertThat(set.size()).isEqualTo(500);
+    for (int i = 0; i < 1000; i++) {
+      assertThat(set.contains("goog.pkg" + i % 7 + ".Class" + i)).isEqualTo(i % 2 == 0);
+    }
+    assertThat(set.contains("goog.pkg0")).isFalse();
+    assertThat(set.contains("zzz")).isFalse();
+  }
+
+  @Test
+  public void nonAscii_isFound() throws Exception {
+    NamespaceSet set = NamespaceSet.copyOf(ImmutableList.of("a.é", "a.中", "a.z"));
+    assertThat(set.contains("a.é")).isTrue();
+    assertThat(set.contains("a.中")).isTrue();
+    assertThat(set.contains("a.e")).isFalse();
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.javascript.rhino.Node;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ParsedSource}. */
+@RunWith(JUnit4.class)
+public class ParsedSourceTest {
+
+  @Test
+  public void newAst_givesEachCompilationItsOwnTree() throws Exception {
+    ParsedSource source =
+        ParsedSource.parse(
+            SourceFile.fromCode("/foo.js", "goog.provide('foo');\nfoo.bar = 1;\n"),
+            JsChecker.createOptions());
+    Node first = source.newAst().getAstRoot(newCompiler());
+    Node second = source.newAst().getAstRoot(newCompiler());
+    assertThat(first).isNotSameAs(second);
+    first.removeChildren();
+    assertThat(second.getChildCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void newAst_replaysParseErrors() throws Exception {
+    ParsedSource source =
+        ParsedSource.parse(
+            SourceFile.fromCode("/foo.js", "var x = ;\n"), JsChecker.createOptions());
+    Compiler first = newCompiler();
+    source.newAst().getAstRoot(first);
+    assertThat(first.getErrorCount()).isEqualTo(1);
+    Compiler second = newCompiler();
+    source.newAst().getAstRoot(second);
+    assertThat(second.getErrorCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void setSourceFile_parsesReplacement() throws Exception {
+    ParsedSource source =
+        ParsedSource.parse(
+            SourceFile.fromCode("/foo.js", "var x = 1;\n"), JsChecker.createOptions());
+    SourceAst ast = source.newAst();
+    assertThat(ast.getAstRoot(newCompiler()).getChildCount()).isEqualTo(1);
+    SourceFile replacement = SourceFile.fromCode("/foo.js", "var x = 1;\nvar y = 2;\n");
+    ast.setSourceFile(replacement);
+    assertThat(ast.getSourceFile()).isSameAs(replacement);
+    assertThat(ast.getAstRoot(newCompiler()).getChildCount()).isEqualTo(2);
+  }
+
+  private static Compiler newCompiler() {
+    Compiler compiler = new Compiler();
+    compiler.setErrorManager(new BlackHoleErrorManager());
+    compiler.initOptions(JsChecker.createOptions());
+    return compiler;
+  }
+}
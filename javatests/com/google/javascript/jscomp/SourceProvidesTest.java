@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 The Closure Rules Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.javascript.jscomp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SourceProvides}. */
+@RunWith(JUnit4.class)
+public class SourceProvidesTest {
+
+  @Test
+  public void provideAndModule_areFound() throws Exception {
+    assertThat(parse("goog.provide('foo.bar');\ngoog.provide('foo.baz');\n").namespaces)
+        .containsExactly("foo.bar", "foo.baz");
+    assertThat(parse("goog.module('foo.bar');\n").namespaces).containsExactly("foo.bar");
+  }
+
+  @Test
+  public void declareModuleId_isFound() throws Exception {
+    assertThat(parse("goog.declareModuleId('foo.bar');\nexport const x = 1;\n").namespaces)
+        .containsExactly("foo.bar");
+  }
+
+  @Test
+  public void functionBodies_areIgnored() throws Exception {
+    assertThat(parse("function f() { goog.provide('foo'); }\n").namespaces).isEmpty();
+  }
+
+  @Test
+  public void es6Module_providesNothing() throws Exception {
+    assertThat(parse("export const x = 1;\n").namespaces).isEmpty();
+  }
+
+  private static SourceProvides parse(String code) throws Exception {
+    return SourceProvides.parse(SourceFile.fromCode("/foo.js", code));
+  }
+}
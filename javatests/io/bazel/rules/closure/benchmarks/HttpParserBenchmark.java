@@ -0,0 +1,62 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.benchmarks;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import io.bazel.rules.closure.http.HttpParser;
+import io.bazel.rules.closure.http.HttpRequest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmark for {@link HttpParser#readHttpRequest} on a typical request from a web browser. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpParserBenchmark {
+
+  private static final byte[] REQUEST =
+      ("GET /closure/goog/base.js?v=1234567890 HTTP/1.1\r\n"
+              + "Host: localhost:6006\r\n"
+              + "Connection: keep-alive\r\n"
+              + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 "
+              + "(KHTML, like Gecko) Chrome/75.0.3770.100 Safari/537.36\r\n"
+              + "Accept: */*\r\n"
+              + "Referer: http://localhost:6006/index.html\r\n"
+              + "Accept-Encoding: gzip, deflate, br\r\n"
+              + "Accept-Language: en-US,en;q=0.9\r\n"
+              + "Cookie: session=0123456789abcdef0123456789abcdef; theme=dark\r\n"
+              + "If-None-Match: \"0123456789abcdef\"\r\n"
+              + "\r\n")
+          .getBytes(ISO_8859_1);
+
+  @Benchmark
+  public HttpRequest readHttpRequest() throws IOException {
+    return HttpParser.readHttpRequest(new ByteArrayInputStream(REQUEST));
+  }
+}
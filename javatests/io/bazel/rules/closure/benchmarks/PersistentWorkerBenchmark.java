@@ -0,0 +1,153 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.worker.WorkerProtocol.Input;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.protobuf.ByteString;
+import dagger.BindsInstance;
+import dagger.Component;
+import dagger.Subcomponent;
+import io.bazel.rules.closure.worker.ActionComponent;
+import io.bazel.rules.closure.worker.ActionModule;
+import io.bazel.rules.closure.worker.Annotations.Action;
+import io.bazel.rules.closure.worker.PersistentWorker;
+import io.bazel.rules.closure.worker.Program;
+import io.bazel.rules.closure.worker.WorkerComponent;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for {@link PersistentWorker} request round trips.
+ *
+ * <p>Each operation is one {@link WorkRequest} with as many inputs as a typical closure_js_library
+ * action, handled by a program that does next to nothing. This measures the overhead the worker
+ * adds to every action, either serially or multiplexed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistentWorkerBenchmark {
+
+  private static final int REQUESTS = 100;
+  private static final int INPUTS_PER_REQUEST = 500;
+
+  /** Program that prints how many arguments it was given. */
+  public static final class Command implements Program {
+    private final List<String> args;
+    private final PrintStream output;
+
+    @Inject
+    Command(@Action List<String> args, @Action PrintStream output) {
+      this.args = args;
+      this.output = output;
+    }
+
+    @Override
+    public void run() {
+      output.println(args.size());
+    }
+  }
+
+  @Singleton
+  @Component
+  interface Server extends WorkerComponent<Command, Invocation, Invocation.Builder> {
+    PersistentWorker<Server> worker();
+
+    @Component.Builder
+    interface Builder {
+      @BindsInstance Builder fs(FileSystem fs);
+      Server build();
+    }
+  }
+
+  @Subcomponent(modules = ActionModule.class)
+  interface Invocation extends ActionComponent<Command> {
+    @Subcomponent.Builder
+    interface Builder extends ActionComponent.Builder<Command, Invocation, Builder> {}
+  }
+
+  @Param({"false", "true"})
+  public boolean multiplex;
+
+  private PersistentWorker<Server> worker;
+  private byte[] requests;
+
+  @Setup
+  public void setUp() throws IOException {
+    worker =
+        DaggerPersistentWorkerBenchmark_Server.builder()
+            .fs(FileSystems.getDefault())
+            .build()
+            .worker();
+    Random random = new Random(0);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (int i = 0; i < REQUESTS; i++) {
+      WorkRequest.Builder request = WorkRequest.newBuilder().setRequestId(multiplex ? i + 1 : 0);
+      for (int j = 0; j < INPUTS_PER_REQUEST; j++) {
+        byte[] digest = new byte[32];
+        random.nextBytes(digest);
+        String path = String.format("bazel-out/k8-fastbuild/bin/lib%d/file%d.js", i, j);
+        request.addArguments("--src").addArguments(path);
+        request.addInputs(
+            Input.newBuilder().setPath(path).setDigest(ByteString.copyFrom(digest)));
+      }
+      request.build().writeDelimitedTo(bytes);
+    }
+    requests = bytes.toByteArray();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(REQUESTS)
+  public int roundTrip() throws IOException {
+    InputStream realStdIn = System.in;
+    PrintStream realStdOut = System.out;
+    ByteArrayOutputStream responses = new ByteArrayOutputStream(REQUESTS * 64);
+    try (PrintStream out = new PrintStream(responses)) {
+      System.setIn(new ByteArrayInputStream(requests));
+      System.setOut(out);
+      return worker.run(ImmutableList.of("--persistent_worker"));
+    } finally {
+      System.setIn(realStdIn);
+      System.setOut(realStdOut);
+    }
+  }
+}
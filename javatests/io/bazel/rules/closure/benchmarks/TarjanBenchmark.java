@@ -0,0 +1,72 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.benchmarks;
+
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+import io.bazel.rules.closure.Tarjan;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for {@link Tarjan#run(Multimap)}.
+ *
+ * <p>The graph is shaped like the web files of a large web_library transitive closure: mostly
+ * acyclic links from each file to a few files loaded before it, plus some cycles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TarjanBenchmark {
+
+  private static final int VERTICES = 20000;
+  private static final int EDGES_PER_VERTEX = 4;
+  private static final int CYCLES = 100;
+
+  private Multimap<Integer, Integer> edges;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    edges = LinkedHashMultimap.create(VERTICES, EDGES_PER_VERTEX);
+    for (int i = 1; i < VERTICES; i++) {
+      for (int j = 0; j < EDGES_PER_VERTEX; j++) {
+        edges.put(i, random.nextInt(i));
+      }
+    }
+    for (int i = 0; i < CYCLES; i++) {
+      int from = random.nextInt(VERTICES);
+      edges.put(from, from + random.nextInt(VERTICES - from));
+    }
+  }
+
+  @Benchmark
+  public Tarjan.Result<Integer> run() {
+    return Tarjan.run(edges);
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.benchmarks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.ByteSource;
+import io.bazel.rules.closure.webfiles.BuildInfo.WebfileInfo;
+import io.bazel.rules.closure.webfiles.WebfilesWriter;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for {@link WebfilesWriter#writeWebfiles(Map)}.
+ *
+ * <p>Each operation writes the zip for a web_library with a hundred text files, which get deflated,
+ * and a few images, which get stored. With one thread, files are compressed on the calling thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebfilesWriterBenchmark {
+
+  private static final int TEXT_FILES = 100;
+  private static final int TEXT_FILE_SIZE = 16 * 1024;
+  private static final int IMAGES = 10;
+  private static final int IMAGE_SIZE = 64 * 1024;
+
+  @Param({"1", "6"})
+  public int compressionLevel;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  private final Map<WebfileInfo, ByteSource> webfiles = new LinkedHashMap<>();
+  private ExecutorService executor;
+  private Path zip;
+
+  @Setup
+  public void setUp() throws IOException {
+    Random random = new Random(0);
+    for (int i = 0; i < TEXT_FILES; i++) {
+      StringBuilder text = new StringBuilder(TEXT_FILE_SIZE);
+      while (text.length() < TEXT_FILE_SIZE) {
+        text.append(
+            String.format(
+                "goog.provide('lib.Component%d');\nlib.value%d = %d;\n",
+                i, text.length(), random.nextInt()));
+      }
+      add(String.format("/lib/dir%d/component%d.js", i % 10, i), text.toString().getBytes(UTF_8));
+    }
+    for (int i = 0; i < IMAGES; i++) {
+      byte[] image = new byte[IMAGE_SIZE];
+      random.nextBytes(image);
+      add(String.format("/lib/images/image%d.png", i), image);
+    }
+    executor = Executors.newFixedThreadPool(threads);
+    zip = Files.createTempFile("WebfilesWriterBenchmark", ".zip");
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    executor.shutdownNow();
+    Files.delete(zip);
+  }
+
+  @Benchmark
+  public List<WebfileInfo> writeWebfiles() throws IOException {
+    try (SeekableByteChannel channel =
+            Files.newByteChannel(
+                zip, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        WebfilesWriter writer =
+            new WebfilesWriter(channel, compressionLevel, executor, threads)) {
+      return writer.writeWebfiles(webfiles);
+    }
+  }
+
+  private void add(String webpath, byte[] content) {
+    webfiles.put(
+        WebfileInfo.newBuilder().setWebpath(webpath).setRunpath("web" + webpath).build(),
+        ByteSource.wrap(content));
+  }
+}
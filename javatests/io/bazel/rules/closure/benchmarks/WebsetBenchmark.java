@@ -0,0 +1,94 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.benchmarks;
+
+import io.bazel.rules.closure.WebpathInterner;
+import io.bazel.rules.closure.webfiles.BuildInfo.MultimapInfo;
+import io.bazel.rules.closure.webfiles.BuildInfo.WebfileInfo;
+import io.bazel.rules.closure.webfiles.BuildInfo.WebfileManifestInfo;
+import io.bazel.rules.closure.webfiles.Webset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for {@link Webset#load(Map, WebpathInterner)}.
+ *
+ * <p>This loads the manifests of a web_library transitive closure with a few hundred rules, each of
+ * which has dozens of web files that link to files in the same or earlier rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebsetBenchmark {
+
+  private static final int MANIFESTS = 300;
+  private static final int WEBFILES_PER_MANIFEST = 50;
+  private static final int LINKS_PER_WEBFILE = 4;
+
+  private final Map<Path, WebfileManifestInfo> manifests = new LinkedHashMap<>();
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    for (int i = 0; i < MANIFESTS; i++) {
+      WebfileManifestInfo.Builder manifest =
+          WebfileManifestInfo.newBuilder().setLabel(String.format("//web/lib%d:lib%d", i, i));
+      for (int j = 0; j < WEBFILES_PER_MANIFEST; j++) {
+        String webpath = getWebpath(i, j);
+        manifest.addWebfile(
+            WebfileInfo.newBuilder()
+                .setWebpath(webpath)
+                .setRunpath("web" + webpath)
+                .setInZip(true)
+                .setOffset(j * 4096L));
+        MultimapInfo.Builder link = MultimapInfo.newBuilder().setKey(webpath);
+        for (int k = 0; k < LINKS_PER_WEBFILE; k++) {
+          int dep = random.nextInt(i + 1);
+          link.addValue(getWebpath(dep, random.nextInt(dep == i ? j + 1 : WEBFILES_PER_MANIFEST)));
+        }
+        manifest.addLink(link);
+      }
+      manifests.put(
+          Paths.get(String.format("bazel-out/k8-fastbuild/bin/web/lib%d/lib%d.pb", i, i)),
+          manifest.build());
+    }
+  }
+
+  @Benchmark
+  public Webset load() {
+    return Webset.load(manifests, new WebpathInterner());
+  }
+
+  private static String getWebpath(int manifest, int webfile) {
+    return String.format("/lib%d/component%d.html", manifest, webfile);
+  }
+}
@@ -32,6 +32,7 @@ import com.google.common.collect.ImmutableMultimap;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import io.bazel.rules.closure.webfiles.BuildInfo.Webfiles;
+import io.bazel.rules.closure.worker.Metrics;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.FileSystem;
@@ -51,7 +52,7 @@ public class WebfilesValidatorProgramTest {
   private final PrintStream output = mock(PrintStream.class);
   private final WebfilesValidator validator = mock(WebfilesValidator.class);
   private final WebfilesValidatorProgram program =
-      new WebfilesValidatorProgram(output, fs, validator);
+      new WebfilesValidatorProgram(output, fs, validator, new Metrics());
 
   @After
   public void after() throws Exception {
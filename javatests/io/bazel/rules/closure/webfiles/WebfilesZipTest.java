@@ -23,10 +23,13 @@ import static java.nio.file.StandardOpenOption.WRITE;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Range;
+import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import com.google.common.testing.NullPointerTester;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.bazel.rules.closure.Webpath;
 import io.bazel.rules.closure.webfiles.BuildInfo.WebfileInfo;
 import io.bazel.rules.closure.webfiles.WebfilesReader.ZipEntryInputStream;
 import java.io.IOException;
@@ -38,6 +41,13 @@ import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -60,17 +70,31 @@ public class WebfilesZipTest {
   @Theory
   public void nulls(FileSystem fs) throws Exception {
     Path path = fs.getPath("rule.i.zip");
+    Path dep = fs.getPath("dep.i.zip");
+    new WebfilesWriter(
+            Files.newByteChannel(dep, WRITE, CREATE, TRUNCATE_EXISTING), Deflater.BEST_SPEED)
+        .close();
+    MappedWebfilesReader depReader = MappedWebfilesReader.open(dep);
     try (SeekableByteChannel chan = Files.newByteChannel(path, WRITE, CREATE, TRUNCATE_EXISTING)) {
       NullPointerTester npt = new NullPointerTester();
+      npt.setDefault(MappedWebfilesReader.class, depReader);
+      npt.setDefault(WebfilesStore.class, WebfilesStore.open(fs.getPath("store")));
       npt.setDefault(Path.class, path);
       npt.setDefault(FileTime.class, FileTime.fromMillis(0));
       npt.setDefault(WebfileInfo.class, WebfileInfo.getDefaultInstance());
+      npt.setDefault(ExecutorService.class, MoreExecutors.newDirectExecutorService());
       npt.testAllPublicStaticMethods(WebfilesReader.class);
       npt.testAllPublicStaticMethods(WebfilesWriter.class);
+      npt.testAllPublicStaticMethods(MappedWebfilesReader.class);
+      npt.testAllPublicStaticMethods(WebfilesStore.class);
       npt.testAllPublicConstructors(WebfilesReader.class);
       npt.testAllPublicConstructors(WebfilesWriter.class);
       npt.testAllPublicInstanceMethods(new WebfilesReader(chan));
+      npt.testAllPublicInstanceMethods(depReader);
       npt.testAllPublicInstanceMethods(new WebfilesWriter(chan, Deflater.BEST_SPEED));
+      npt.testAllPublicInstanceMethods(
+          new WebfilesWriter(
+              chan, Deflater.BEST_SPEED, MoreExecutors.newDirectExecutorService(), 2));
     }
   }
 
@@ -192,4 +216,246 @@ public class WebfilesZipTest {
     }
     assertThat(Files.size(path)).isGreaterThan(300L);
   }
+
+  @Theory
+  public void parallelWriter_writesSameArchiveAsSerialWriter(FileSystem fs) throws Exception {
+    Map<WebfileInfo, ByteSource> files = new LinkedHashMap<>();
+    for (int i = 0; i < 20; i++) {
+      files.put(
+          WebfileInfo.newBuilder()
+              .setWebpath(String.format("/dir%d/file%d.%s", i % 3, i, i % 4 == 0 ? "png" : "js"))
+              .setRunpath("web/file" + i)
+              .build(),
+          ByteSource.wrap(Strings.repeat("file" + i + "\n", 1000 * i).getBytes(UTF_8)));
+    }
+    Path serial = fs.getPath("serial.i.zip");
+    List<WebfileInfo> serialWebfiles = new ArrayList<>();
+    try (WebfilesWriter writer =
+        new WebfilesWriter(
+            Files.newByteChannel(serial, WRITE, CREATE, TRUNCATE_EXISTING),
+            Deflater.BEST_COMPRESSION)) {
+      for (Map.Entry<WebfileInfo, ByteSource> file : files.entrySet()) {
+        serialWebfiles.add(writer.writeWebfile(file.getKey(), file.getValue().read()));
+      }
+    }
+    Path parallel = fs.getPath("parallel.i.zip");
+    List<WebfileInfo> parallelWebfiles;
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try (WebfilesWriter writer =
+        new WebfilesWriter(
+            Files.newByteChannel(parallel, WRITE, CREATE, TRUNCATE_EXISTING),
+            Deflater.BEST_COMPRESSION,
+            executor,
+            4)) {
+      parallelWebfiles = writer.writeWebfiles(files);
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(Files.readAllBytes(parallel)).isEqualTo(Files.readAllBytes(serial));
+    assertThat(parallelWebfiles).isEqualTo(serialWebfiles);
+    try (SeekableByteChannel chan = Files.newByteChannel(parallel);
+        WebfilesReader zip = new WebfilesReader(chan)) {
+      try (InputStream input = zip.openWebfile(parallelWebfiles.get(13))) {
+        assertThat(ByteStreams.toByteArray(input))
+            .isEqualTo(Strings.repeat("file13\n", 13000).getBytes(UTF_8));
+      }
+      try (InputStream input = zip.openWebfile(parallelWebfiles.get(8))) {
+        assertThat(ByteStreams.toByteArray(input))
+            .isEqualTo(Strings.repeat("file8\n", 8000).getBytes(UTF_8));
+      }
+    }
+  }
+
+  @Theory
+  public void mappedReader_opensManyWebfilesAtOnce(FileSystem fs) throws Exception {
+    Path path = fs.getPath("rule.i.zip");
+    WebfileInfo html = WebfileInfo.newBuilder().setWebpath("/foo.html").build();
+    byte[] htmlData = Strings.repeat("LOL", 10000).getBytes(UTF_8);
+    WebfileInfo png = WebfileInfo.newBuilder().setWebpath("/img/foo.png").build();
+    byte[] pngData = Strings.repeat("lol", 100).getBytes(UTF_8);
+    try (WebfilesWriter writer =
+        new WebfilesWriter(
+            Files.newByteChannel(path, WRITE, CREATE, TRUNCATE_EXISTING), Deflater.BEST_SPEED)) {
+      html = writer.writeWebfile(html, htmlData);
+      png = writer.writeWebfile(png, pngData);
+    }
+    MappedWebfilesReader zip = MappedWebfilesReader.open(path);
+    try (InputStream pngInput = zip.openWebfile(png);
+        InputStream htmlInput = zip.openWebfile(html)) {
+      assertThat(pngInput.read()).isEqualTo('l');
+      assertThat(ByteStreams.toByteArray(htmlInput)).isEqualTo(htmlData);
+      assertThat(ByteStreams.toByteArray(pngInput)).hasLength(pngData.length - 1);
+    }
+    assertThat(zip.isStored(html)).isFalse();
+    assertThat(zip.isStored(png)).isTrue();
+    ByteBuffer stored = zip.getStoredWebfile(png);
+    assertThat(stored.isReadOnly()).isTrue();
+    byte[] storedData = new byte[stored.remaining()];
+    stored.get(storedData);
+    assertThat(storedData).isEqualTo(pngData);
+  }
+
+  @Theory
+  public void mappedReader_corruptFile_throwsCrcError(FileSystem fs) throws Exception {
+    Path path = fs.getPath("rule.i.zip");
+    WebfileInfo webfile = WebfileInfo.newBuilder().setWebpath("/foo.jpg").build();
+    try (WebfilesWriter writer =
+        new WebfilesWriter(
+            Files.newByteChannel(path, WRITE, CREATE, TRUNCATE_EXISTING), Deflater.BEST_SPEED)) {
+      webfile =
+          writer.writeWebfile(
+              webfile, Strings.repeat("hello <b>world</b><br>", 1000).getBytes(UTF_8));
+    }
+    try (SeekableByteChannel chan = Files.newByteChannel(path, WRITE)) {
+      chan.position(100);
+      chan.write(ByteBuffer.wrap(new byte[] {6, 6, 6}));
+    }
+    try (InputStream input = MappedWebfilesReader.open(path).openWebfile(webfile)) {
+      thrown.expect(IOException.class);
+      thrown.expectMessage("CRC");
+      ByteStreams.exhaust(input);
+    }
+  }
+
+  @Theory
+  public void writeFile_writesSameArchiveAsBytes(FileSystem fs) throws Exception {
+    byte[] jpgData = Strings.repeat("hello <b>world</b><br>", 1000).getBytes(UTF_8);
+    byte[] jsData = Strings.repeat("var x = 1;\n", 1000).getBytes(UTF_8);
+    Path jpgFile = fs.getPath("foo.jpg");
+    Path jsFile = fs.getPath("foo.js");
+    Files.write(jpgFile, jpgData);
+    Files.write(jsFile, jsData);
+    WebfileInfo jpg = WebfileInfo.newBuilder().setWebpath("/a/foo.jpg").setRunpath("a").build();
+    WebfileInfo js = WebfileInfo.newBuilder().setWebpath("/a/b/foo.js").setRunpath("b").build();
+    Path fromFiles = fs.getPath("files.i.zip");
+    try (WebfilesWriter writer =
+        new WebfilesWriter(
+            Files.newByteChannel(fromFiles, WRITE, CREATE, TRUNCATE_EXISTING),
+            Deflater.BEST_SPEED)) {
+      jpg = writer.writeWebfile(jpg, jpgFile);
+      js = writer.writeWebfile(js, jsFile);
+      writer.writeWebfile(WebfileInfo.newBuilder().setWebpath("/c.jpg").build(), jpgFile);
+    }
+    Path fromBytes = fs.getPath("bytes.i.zip");
+    try (WebfilesWriter writer =
+        new WebfilesWriter(
+            Files.newByteChannel(fromBytes, WRITE, CREATE, TRUNCATE_EXISTING),
+            Deflater.BEST_SPEED)) {
+      assertThat(writer.writeWebfile(jpg, jpgData)).isEqualTo(jpg);
+      assertThat(writer.writeWebfile(js, jsData)).isEqualTo(js);
+      writer.writeWebfile(WebfileInfo.newBuilder().setWebpath("/c.jpg").build(), jpgData);
+    }
+    assertThat(Files.readAllBytes(fromFiles)).isEqualTo(Files.readAllBytes(fromBytes));
+    try (SeekableByteChannel chan = Files.newByteChannel(fromFiles);
+        WebfilesReader zip = new WebfilesReader(chan);
+        InputStream input = zip.openWebfile(jpg)) {
+      assertThat(ByteStreams.toByteArray(input)).isEqualTo(jpgData);
+    }
+  }
+
+  @Theory
+  public void copyWebfiles_allFilesFromOneArchive_writesSameArchive(FileSystem fs)
+      throws Exception {
+    Path incremental = fs.getPath("rule.i.zip");
+    List<Webfile> webfiles = new ArrayList<>();
+    try (WebfilesWriter writer =
+        new WebfilesWriter(
+            Files.newByteChannel(incremental, WRITE, CREATE, TRUNCATE_EXISTING),
+            Deflater.BEST_SPEED)) {
+      for (String webpath : new String[] {"/foo.html", "/foo.jpg", "/foo.js"}) {
+        WebfileInfo info =
+            writer.writeWebfile(
+                WebfileInfo.newBuilder().setWebpath(webpath).setRunpath("web" + webpath).build(),
+                Strings.repeat(webpath, 1000).getBytes(UTF_8));
+        webfiles.add(Webfile.create(Webpath.get(webpath), incremental, "//:rule", info));
+      }
+    }
+    Path deploy = fs.getPath("deploy.zip");
+    List<WebfileInfo> copied;
+    try (WebfilesWriter writer =
+        new WebfilesWriter(
+            Files.newByteChannel(deploy, WRITE, CREATE, TRUNCATE_EXISTING),
+            Deflater.BEST_COMPRESSION)) {
+      copied = writer.copyWebfiles(webfiles);
+    }
+    // Entries are copied as they are, so the compression level of the incremental zip is kept.
+    assertThat(Files.readAllBytes(deploy)).isEqualTo(Files.readAllBytes(incremental));
+    assertThat(copied.get(2).getDigest()).isEqualTo(webfiles.get(2).info().getDigest());
+  }
+
+  @Theory
+  public void copyWebfile_fromSeveralArchives_rewritesOffsets(FileSystem fs) throws Exception {
+    Path lib1 = fs.getPath("lib1.i.zip");
+    Path lib2 = fs.getPath("lib2.i.zip");
+    WebfileInfo js = WebfileInfo.newBuilder().setWebpath("/a/b/foo.js").build();
+    WebfileInfo png = WebfileInfo.newBuilder().setWebpath("/a/foo.png").build();
+    byte[] jsData = Strings.repeat("var x = 1;\n", 1000).getBytes(UTF_8);
+    byte[] pngData = Strings.repeat("lol", 1000).getBytes(UTF_8);
+    try (WebfilesWriter writer =
+        new WebfilesWriter(
+            Files.newByteChannel(lib1, WRITE, CREATE, TRUNCATE_EXISTING), Deflater.BEST_SPEED)) {
+      js = writer.writeWebfile(js, jsData);
+    }
+    try (WebfilesWriter writer =
+        new WebfilesWriter(
+            Files.newByteChannel(lib2, WRITE, CREATE, TRUNCATE_EXISTING), Deflater.BEST_SPEED)) {
+      writer.writeWebfile(WebfileInfo.newBuilder().setWebpath("/unused.js").build(), jsData);
+      png = writer.writeWebfile(png, pngData);
+    }
+    Path deploy = fs.getPath("deploy.zip");
+    WebfileInfo copiedPng;
+    WebfileInfo copiedJs;
+    try (WebfilesWriter writer =
+        new WebfilesWriter(
+            Files.newByteChannel(deploy, WRITE, CREATE, TRUNCATE_EXISTING),
+            Deflater.BEST_COMPRESSION)) {
+      copiedPng = writer.copyWebfile(MappedWebfilesReader.open(lib2), png);
+      copiedJs = writer.copyWebfile(MappedWebfilesReader.open(lib1), js);
+    }
+    assertThat(copiedPng.getOffset()).isNotEqualTo(png.getOffset());
+    assertThat(copiedJs.getOffset()).isNotEqualTo(js.getOffset());
+    MappedWebfilesReader zip = MappedWebfilesReader.open(deploy);
+    try (InputStream input = zip.openWebfile(copiedJs)) {
+      assertThat(ByteStreams.toByteArray(input)).isEqualTo(jsData);
+    }
+    try (InputStream input = zip.openWebfile(copiedPng)) {
+      assertThat(ByteStreams.toByteArray(input)).isEqualTo(pngData);
+    }
+    try (InputStream input = Files.newInputStream(deploy);
+        ZipInputStream entries = new ZipInputStream(input)) {
+      assertThat(entries.getNextEntry().getName()).isEqualTo("a/");
+      assertThat(entries.getNextEntry().getName()).isEqualTo("a/foo.png");
+      assertThat(entries.getNextEntry().getName()).isEqualTo("a/b/");
+      assertThat(entries.getNextEntry().getName()).isEqualTo("a/b/foo.js");
+      assertThat(entries.getNextEntry()).isNull();
+    }
+  }
+
+  @Theory
+  public void store_sameWebfileInTwoArchives_isCompressedOnce(FileSystem fs) throws Exception {
+    WebfilesStore store = WebfilesStore.open(fs.getPath("store"));
+    byte[] data = Strings.repeat("<svg><path d='M0 0'/></svg>\n", 1000).getBytes(UTF_8);
+    List<WebfileInfo> written = new ArrayList<>();
+    for (String lib : new String[] {"lib1", "lib2"}) {
+      try (WebfilesWriter writer =
+          new WebfilesWriter(
+              Files.newByteChannel(fs.getPath(lib + ".i.zip"), WRITE, CREATE, TRUNCATE_EXISTING),
+              Deflater.BEST_COMPRESSION,
+              MoreExecutors.newDirectExecutorService(),
+              1,
+              store)) {
+        written.add(
+            writer.writeWebfile(
+                WebfileInfo.newBuilder().setWebpath("/" + lib + "/icons.svg").build(), data));
+      }
+    }
+    assertThat(written.get(1).getDigest()).isEqualTo(written.get(0).getDigest());
+    try (Stream<Path> entries = Files.walk(fs.getPath("store"))) {
+      assertThat(entries.filter(Files::isRegularFile).count()).isEqualTo(1);
+    }
+    MappedWebfilesReader zip = MappedWebfilesReader.open(fs.getPath("lib2.i.zip"));
+    try (InputStream input = zip.openWebfile(written.get(1))) {
+      assertThat(ByteStreams.toByteArray(input)).isEqualTo(data);
+    }
+  }
 }
@@ -27,6 +27,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.file.FileSystem;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
@@ -50,6 +51,7 @@ public class CommandLineProgramTest {
     }
   }
 
+  @Singleton
   @Component
   interface Server extends WorkerComponent<LegacyAspect<Command>, Invocation, Invocation.Builder> {
     PersistentWorker<Server> worker();
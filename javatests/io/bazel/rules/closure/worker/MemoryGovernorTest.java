@@ -0,0 +1,211 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link MemoryGovernor}. */
+@RunWith(JUnit4.class)
+public class MemoryGovernorTest {
+
+  // Successive heap usage readings, the last of which repeats forever.
+  private final Deque<Double> readings = new ArrayDeque<>();
+  private int collections;
+  private boolean collectionsIgnored;
+
+  private final MemoryGovernor governor =
+      new MemoryGovernor(
+          new MemoryGovernor.Heap() {
+            @Override
+            public double getUsage() {
+              return readings.size() > 1 ? readings.remove() : readings.element();
+            }
+
+            @Override
+            public long getCollections() {
+              return collections;
+            }
+
+            @Override
+            public long getMaxBytes() {
+              return 10000;
+            }
+
+            @Override
+            public void collect() {
+              if (!collectionsIgnored) {
+                collections++;
+              }
+            }
+          });
+  private final ByteArrayOutputStream logBytes = new ByteArrayOutputStream();
+  private final PrintStream log = new PrintStream(logBytes, true);
+
+  private LoadingCache<Integer, String> newCache(String name) {
+    return governor.newCache(
+        name,
+        1024 * 1024,
+        (Integer key, String value) -> value.length(),
+        CacheLoader.from((Integer key) -> Strings.repeat("x", key)));
+  }
+
+  private void setReadings(Double... values) {
+    readings.clear();
+    readings.addAll(Arrays.asList(values));
+  }
+
+  @Test
+  public void belowShedWatermark_keepsCaches() throws Exception {
+    LoadingCache<Integer, String> cache = newCache("small");
+    cache.getUnchecked(10);
+    setReadings(0.5);
+    assertThat(governor.relieve(log)).isFalse();
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(logBytes.toString()).isEmpty();
+  }
+
+  @Test
+  public void aboveShedWatermark_shedsLargestFirst() throws Exception {
+    LoadingCache<Integer, String> small = newCache("small");
+    LoadingCache<Integer, String> big = newCache("big");
+    newCache("empty");
+    small.getUnchecked(100);
+    big.getUnchecked(1000);
+    big.getUnchecked(2000);
+    setReadings(0.95, 0.5);
+    assertThat(governor.relieve(log)).isFalse();
+    assertThat(small.size()).isEqualTo(0);
+    assertThat(big.size()).isEqualTo(0);
+    assertThat(collections).isEqualTo(1);
+    String output = logBytes.toString();
+    assertThat(output).contains("3,000 bytes of big cache");
+    assertThat(output).contains("100 bytes of small cache");
+    assertThat(output).doesNotContain("empty cache");
+    assertThat(output.indexOf("big")).isLessThan(output.indexOf("small"));
+    assertThat(output).contains("left live heap at 50%");
+  }
+
+  @Test
+  public void enoughWeightShed_keepsSmallerCaches() throws Exception {
+    LoadingCache<Integer, String> small = newCache("small");
+    LoadingCache<Integer, String> big = newCache("big");
+    small.getUnchecked(10);
+    big.getUnchecked(3000);
+    setReadings(0.8, 0.3);
+    assertThat(governor.relieve(log)).isFalse();
+    assertThat(big.size()).isEqualTo(0);
+    assertThat(small.size()).isEqualTo(1);
+    assertThat(collections).isEqualTo(1);
+  }
+
+  @Test
+  public void evictedEntries_stopCountingTowardsWeight() throws Exception {
+    LoadingCache<Integer, String> small = newCache("small");
+    LoadingCache<Integer, String> big = newCache("big");
+    small.getUnchecked(200);
+    big.getUnchecked(1000);
+    big.invalidateAll();
+    setReadings(0.8, 0.3);
+    assertThat(governor.relieve(log)).isFalse();
+    assertThat(small.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void negligibleCaches_areNotShed() throws Exception {
+    LoadingCache<Integer, String> cache = newCache("tiny");
+    cache.getUnchecked(10);
+    setReadings(0.8);
+    assertThat(governor.relieve(log)).isFalse();
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(collections).isEqualTo(0);
+  }
+
+  @Test
+  public void stillAboveShedWatermarkAfterShedding_doesNotShedEveryTime() throws Exception {
+    LoadingCache<Integer, String> cache = newCache("small");
+    cache.getUnchecked(200);
+    setReadings(0.8, 0.75);
+    assertThat(governor.relieve(log)).isFalse();
+    assertThat(collections).isEqualTo(1);
+    for (int i = 0; i < 3; i++) {
+      cache.getUnchecked(200);
+      assertThat(governor.relieve(log)).isFalse();
+      assertThat(cache.size()).isEqualTo(1);
+    }
+    assertThat(collections).isEqualTo(1);
+    setReadings(0.86, 0.8);
+    assertThat(governor.relieve(log)).isFalse();
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(collections).isEqualTo(2);
+  }
+
+  @Test
+  public void belowTargetAgain_shedsAtWatermark() throws Exception {
+    LoadingCache<Integer, String> cache = newCache("small");
+    cache.getUnchecked(200);
+    setReadings(0.8, 0.75, 0.5);
+    assertThat(governor.relieve(log)).isFalse();
+    assertThat(governor.relieve(log)).isFalse();
+    cache.getUnchecked(200);
+    setReadings(0.7, 0.5);
+    assertThat(governor.relieve(log)).isFalse();
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(collections).isEqualTo(2);
+  }
+
+  @Test
+  public void ignoredCollection_doesNotTrustStaleUsage() throws Exception {
+    LoadingCache<Integer, String> cache = newCache("small");
+    collectionsIgnored = true;
+    cache.getUnchecked(200);
+    setReadings(0.8);
+    assertThat(governor.relieve(log)).isFalse();
+    assertThat(logBytes.toString()).contains("didn't happen");
+    cache.getUnchecked(200);
+    assertThat(governor.relieve(log)).isFalse();
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void aboveRecycleWatermarkAfterShedding_asksForRecycle() throws Exception {
+    newCache("small").getUnchecked(200);
+    setReadings(0.95);
+    assertThat(governor.relieve(log)).isTrue();
+  }
+
+  @Test
+  public void betweenWatermarksAfterShedding_doesNotRecycle() throws Exception {
+    newCache("small").getUnchecked(200);
+    setReadings(0.95, 0.8);
+    assertThat(governor.relieve(log)).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void recycleBelowShed_throws() throws Exception {
+    governor.setWatermarks(0.9, 0.7);
+  }
+}
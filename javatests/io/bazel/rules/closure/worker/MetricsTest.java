@@ -0,0 +1,60 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link Metrics}. */
+@RunWith(JUnit4.class)
+public class MetricsTest {
+
+  private final Metrics metrics = new Metrics();
+
+  @Test
+  public void empty_hasEmptySections() throws Exception {
+    assertThat(metrics.toJson()).isEqualTo("{\"counters\":{},\"timers_ms\":{}}");
+  }
+
+  @Test
+  public void countersAndTimers_addUp() throws Exception {
+    metrics.tag("program", "JsChecker");
+    metrics.increment("hits");
+    metrics.add("hits", 2);
+    metrics.record("compile", 2, TimeUnit.MILLISECONDS);
+    metrics.record("compile", 3000, TimeUnit.MICROSECONDS);
+    assertThat(metrics.toJson())
+        .isEqualTo(
+            "{\"program\":\"JsChecker\",\"counters\":{\"hits\":3},\"timers_ms\":{\"compile\":5}}");
+  }
+
+  @Test
+  public void timer_recordsPhaseWhenClosed() throws Exception {
+    try (Metrics.Timer timer = metrics.time("parse")) {
+      assertThat(metrics.toJson()).doesNotContain("parse");
+    }
+    assertThat(metrics.toJson()).contains("\"parse\":");
+  }
+
+  @Test
+  public void tag_escapesJson() throws Exception {
+    metrics.tag("label", "//a:\"b\"\\");
+    assertThat(metrics.toJson()).startsWith("{\"label\":\"//a:\\\"b\\\"\\\\\",");
+  }
+}
@@ -32,10 +32,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.file.FileSystem;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
@@ -66,12 +68,16 @@ public class PersistentWorkerTest {
 
     @Override
     public void run() throws Exception {
+      if (args.get(0).equals("error")) {
+        throw new AssertionError(args.get(1));
+      }
       failed.set(Boolean.valueOf(args.get(0)));
       output.println(args.get(1));
       output.println(inputDigests);
     }
   }
 
+  @Singleton
   @Component
   interface Server extends WorkerComponent<Command, Invocation, Invocation.Builder> {
     PersistentWorker<Server> worker();
@@ -139,6 +145,77 @@ public class PersistentWorkerTest {
     assertThat(response.getExitCode()).isEqualTo(1);
   }
 
+  @Test
+  public void persistentWorker_multiplexedRequests_respondsWithRequestIds() throws Exception {
+    ByteArrayOutputStream requests = new ByteArrayOutputStream();
+    for (int id = 1; id <= 10; id++) {
+      WorkRequest.newBuilder()
+          .addArguments(String.valueOf(id % 2 == 0))
+          .addArguments("request " + id)
+          .setRequestId(id)
+          .build()
+          .writeDelimitedTo(requests);
+    }
+    System.setIn(new ByteArrayInputStream(requests.toByteArray()));
+    System.setOut(output);
+    assertThat(create().run(ImmutableList.of("--persistent_worker", "--multiplex_threads=4")))
+        .isEqualTo(0);
+    ByteArrayInputStream responses = new ByteArrayInputStream(outputBytes.toByteArray());
+    Map<Integer, WorkResponse> responsesById = new HashMap<>();
+    WorkResponse response;
+    while ((response = WorkResponse.parseDelimitedFrom(responses)) != null) {
+      responsesById.put(response.getRequestId(), response);
+    }
+    assertThat(responsesById).hasSize(10);
+    for (int id = 1; id <= 10; id++) {
+      assertThat(responsesById.get(id).getOutput()).contains("request " + id + "\n");
+      assertThat(responsesById.get(id).getExitCode()).isEqualTo(id % 2 == 0 ? 1 : 0);
+    }
+  }
+
+  @Test
+  public void persistentWorker_multiplexedRequestThrows_stillResponds() throws Exception {
+    ByteArrayOutputStream requests = new ByteArrayOutputStream();
+    WorkRequest.newBuilder()
+        .addArguments("error")
+        .addArguments("i threw an error")
+        .setRequestId(1)
+        .build()
+        .writeDelimitedTo(requests);
+    WorkRequest.newBuilder()
+        .addArguments("@@/missing-flagfile")
+        .setRequestId(2)
+        .build()
+        .writeDelimitedTo(requests);
+    WorkRequest.newBuilder()
+        .addArguments("false")
+        .addArguments("i will not fail")
+        .setRequestId(3)
+        .build()
+        .writeDelimitedTo(requests);
+    System.setIn(new ByteArrayInputStream(requests.toByteArray()));
+    System.setOut(output);
+    assertThat(create().run(ImmutableList.of("--persistent_worker", "--multiplex_threads=2")))
+        .isEqualTo(0);
+    ByteArrayInputStream responses = new ByteArrayInputStream(outputBytes.toByteArray());
+    Map<Integer, WorkResponse> responsesById = new HashMap<>();
+    WorkResponse response;
+    while ((response = WorkResponse.parseDelimitedFrom(responses)) != null) {
+      responsesById.put(response.getRequestId(), response);
+    }
+    assertThat(responsesById).hasSize(3);
+    assertThat(responsesById.get(1).getExitCode()).isEqualTo(1);
+    assertThat(responsesById.get(1).getOutput()).contains("AssertionError: i threw an error");
+    assertThat(responsesById.get(2).getExitCode()).isEqualTo(1);
+    assertThat(responsesById.get(2).getOutput()).contains("missing-flagfile");
+    assertThat(responsesById.get(3).getExitCode()).isEqualTo(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void persistentWorker_noMultiplexThreads_throws() throws Exception {
+    create().run(ImmutableList.of("--persistent_worker", "--multiplex_threads=0"));
+  }
+
   private PersistentWorker<Server> create() {
     return DaggerPersistentWorkerTest_Server.builder()
         .fs(fs)
@@ -0,0 +1,99 @@
+// Copyright 2017 The Closure Rules Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.bazel.rules.closure.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SpillingOutputStream}. */
+@RunWith(JUnit4.class)
+public class SpillingOutputStreamTest {
+
+  private final FileSystem fs = Jimfs.newFileSystem();
+  private final Path spillDirectory = fs.getPath("/spill");
+
+  @After
+  public void closeFileSystem() throws Exception {
+    fs.close();
+  }
+
+  private static void write(SpillingOutputStream output, String text) throws IOException {
+    output.write(text.getBytes(UTF_8));
+  }
+
+  @Test
+  public void underLimit_keepsEverythingInMemory() throws Exception {
+    SpillingOutputStream output = new SpillingOutputStream(10, spillDirectory);
+    write(output, "hello\n");
+    write(output, "bye\n");
+    output.close();
+    assertThat(output.toByteString().toStringUtf8()).isEqualTo("hello\nbye\n");
+    assertThat(output.getSpillFile()).isNull();
+    assertThat(Files.exists(spillDirectory)).isFalse();
+  }
+
+  @Test
+  public void overLimit_spillsEverythingAndCutsAtLastLine() throws Exception {
+    SpillingOutputStream output = new SpillingOutputStream(10, spillDirectory);
+    write(output, "hello\n");
+    write(output, "world\n");
+    write(output, "bye\n");
+    output.close();
+    Path spillFile = output.getSpillFile();
+    assertThat(spillFile.getParent()).isEqualTo(spillDirectory);
+    assertThat(new String(Files.readAllBytes(spillFile), UTF_8)).isEqualTo("hello\nworld\nbye\n");
+    assertThat(output.size()).isEqualTo(16);
+    String response = output.toByteString().toStringUtf8();
+    assertThat(response).startsWith("hello\n");
+    assertThat(response).doesNotContain("world");
+    assertThat(response).contains("truncated after 6 of 16 bytes");
+    assertThat(response).contains(spillFile.toString());
+  }
+
+  @Test
+  public void overLimitWithoutLineBreak_cutsAtCharacterBoundary() throws Exception {
+    SpillingOutputStream output = new SpillingOutputStream(3, spillDirectory);
+    write(output, "\u00e9\u00e9\u00e9");
+    output.close();
+    String response = output.toByteString().toStringUtf8();
+    assertThat(response).startsWith("\u00e9\n[output truncated after 2 of 6 bytes");
+  }
+
+  @Test
+  public void manySpills_keepsOnlyNewestFiles() throws Exception {
+    Path spillFile = null;
+    for (int i = 0; i < SpillingOutputStream.MAX_SPILL_FILES + 5; i++) {
+      SpillingOutputStream output = new SpillingOutputStream(3, spillDirectory);
+      write(output, "hello\n");
+      output.close();
+      spillFile = output.getSpillFile();
+    }
+    try (Stream<Path> files = Files.list(spillDirectory)) {
+      assertThat(files.count()).isEqualTo((long) SpillingOutputStream.MAX_SPILL_FILES);
+    }
+    assertThat(Files.exists(spillFile)).isTrue();
+  }
+}
@@ -23,6 +23,9 @@ import org.junit.runners.Suite.SuiteClasses;
 @SuiteClasses({
   CommandLineProgramTest.class,
   ErrorReporterTest.class,
+  MemoryGovernorTest.class,
+  MetricsTest.class,
   PersistentWorkerTest.class,
+  SpillingOutputStreamTest.class,
 })
 public class WorkerTestSuite {}